@@ -0,0 +1,30 @@
+package com.example.sse;
+
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+
+/**
+ * 基准测试辅助工具
+ * 基准测试不启动 Spring 容器，直接创建组件并注入依赖
+ */
+public final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 注入字段值（包括 @Autowired / @Value 私有字段）
+     * @param target 目标对象
+     * @param name 字段名
+     * @param value 字段值
+     */
+    public static void inject(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        if (field == null) {
+            throw new IllegalArgumentException("No field '" + name + "' on " + target.getClass().getName());
+        }
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+}
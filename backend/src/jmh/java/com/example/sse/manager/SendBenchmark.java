@@ -0,0 +1,156 @@
+package com.example.sse.manager;
+
+import com.example.sse.registry.ConnectionRegistry;
+import com.example.sse.registry.ReplayLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.example.sse.BenchmarkSupport.inject;
+
+/**
+ * SseConnectionManager 发送路径基准
+ * 会话写到内存，不经过网络；Redis 注册被替换为空实现，只测量本地编码、入队和写出的开销
+ * 回放日志由接收发送请求的节点在发送路径之外写入，这里不开启
+ * 测量的是调用方耗时，写出由写出线程池异步完成
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendBenchmark {
+
+    @Param({"1000"})
+    private int users;                // 用户数
+
+    @Param({"1", "3"})
+    private int sessionsPerUser;      // 每个用户的会话数
+
+    @Param({"64"})
+    private int payloadSize;          // 消息长度（字符）
+
+    private SseConnectionManager connectionManager;
+    private String[] userIds;
+    private String payload;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();   // 写出的字节数，防止写出被优化掉
+
+    @Setup(Level.Trial)
+    public void setup() {
+        connectionManager = new SseConnectionManager();
+        inject(connectionManager, "connectionRegistry", new InMemoryConnectionRegistry());
+        inject(connectionManager, "replayLog", new ReplayLog());   // 未启用
+        inject(connectionManager, "meterRegistry", new SimpleMeterRegistry());
+        inject(connectionManager, "queueCapacity", 256);
+        inject(connectionManager, "overflowPolicy", OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        inject(connectionManager, "writerThreads", Runtime.getRuntime().availableProcessors());
+        connectionManager.init();
+
+        userIds = new String[users];
+        for (int i = 0; i < users; i++) {
+            userIds[i] = "bench-user-" + i;
+            for (int s = 0; s < sessionsPerUser; s++) {
+                InMemorySseConnection connection = new InMemorySseConnection(userIds[i], userIds[i] + "-" + s,
+                    new OutboundQueue(256, OutboundQueue.OverflowPolicy.DROP_OLDEST));
+                connectionManager.addConnection(connection, null, null);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(payloadSize);
+        for (int i = 0; i < payloadSize; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        payload = sb.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connectionManager.shutdown();
+    }
+
+    /**
+     * 发送给单个用户的所有会话
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean sendMessage() {
+        String userId = userIds[(int) (next.getAndIncrement() % users)];
+        return connectionManager.sendMessage(userId, "message", payload);
+    }
+
+    /**
+     * 广播给本地所有会话
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int broadcastToAll() {
+        return connectionManager.broadcastToAll("notice", payload);
+    }
+
+    /**
+     * 单独测量事件编码
+     */
+    @Benchmark
+    public SseFrame encodeFrame() {
+        return SseFrame.of("message", payload);
+    }
+
+    /**
+     * 写到内存的会话
+     */
+    private class InMemorySseConnection extends SseConnection {
+
+        private InMemorySseConnection(String userId, String sessionId, OutboundQueue outbound) {
+            super(userId, sessionId, outbound);
+        }
+
+        @Override
+        public void send(SseFrame frame) {
+            writtenBytes.addAndGet(frame.getBytes().length);
+        }
+
+        @Override
+        public void complete() {
+        }
+    }
+
+    /**
+     * 不访问 Redis 的注册中心
+     */
+    private static class InMemoryConnectionRegistry extends ConnectionRegistry {
+
+        @Override
+        public void register(String userId, String sessionId) {
+        }
+
+        @Override
+        public void unregister(String userId, String sessionId) {
+        }
+
+        @Override
+        public void updateHeartbeat(String userId) {
+        }
+
+        @Override
+        public String getCurrentNodeId() {
+            return "bench-node";
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.sse.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 模型序列化基准
+ * SseMessage 使用与 RedisConfig 相同的 GenericJackson2JsonRedisSerializer（带类型信息的 JSON）；
+ * ConnectionInfo 同时对比 JSON 和注册中心实际使用的紧凑编码
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    private final GenericJackson2JsonRedisSerializer serializer = new GenericJackson2JsonRedisSerializer();
+
+    private SseMessage message;
+    private ConnectionInfo connectionInfo;
+    private byte[] messageBytes;
+    private byte[] connectionInfoBytes;
+    private String connectionInfoCompact;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        long now = 1700000000000L;   // 固定时间戳，保证每次运行的编码长度相同
+        message = new SseMessage("bench-user-1", "message",
+            "{\"text\":\"hello from the benchmark\",\"seq\":42}", now, null, null, false, null, null);
+        connectionInfo = new ConnectionInfo("bench-user-1", "3f2504e0-4f89-11d3-9a0c-0305e82c3301",
+            "node-1", now, now);
+        messageBytes = serializer.serialize(message);
+        connectionInfoBytes = serializer.serialize(connectionInfo);
+        connectionInfoCompact = connectionInfo.encode();
+    }
+
+    @Benchmark
+    public byte[] serializeSseMessage() {
+        return serializer.serialize(message);
+    }
+
+    @Benchmark
+    public Object deserializeSseMessage() {
+        return serializer.deserialize(messageBytes);
+    }
+
+    @Benchmark
+    public byte[] serializeConnectionInfo() {
+        return serializer.serialize(connectionInfo);
+    }
+
+    @Benchmark
+    public Object deserializeConnectionInfo() {
+        return serializer.deserialize(connectionInfoBytes);
+    }
+
+    @Benchmark
+    public String encodeConnectionInfoCompact() {
+        return connectionInfo.encode();
+    }
+
+    @Benchmark
+    public ConnectionInfo decodeConnectionInfoCompact() {
+        return ConnectionInfo.decode("bench-user-1", "3f2504e0-4f89-11d3-9a0c-0305e82c3301", connectionInfoCompact);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.sse.registry;
+
+import com.example.sse.config.RedisConfig;
+import com.example.sse.health.NodeHealthMonitor;
+import com.example.sse.model.NodeInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.sse.BenchmarkSupport.inject;
+
+/**
+ * ConnectionRegistry 路由查询基准
+ * 需要本地 Redis（默认 localhost:6379，database 15），可通过系统属性修改：
+ * -Djmh.redis.host / -Djmh.redis.port / -Djmh.redis.database
+ * 只写入 jmh- 前缀的 Key，结束时注销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistryLookupBenchmark {
+
+    private static final String NODE_ID = "jmh-node";
+    private static final int BATCH_SIZE = 100;   // 批量查询的用户数
+
+    @Param({"1000"})
+    private int users;                      // 注册的用户数
+
+    @Param({"-1", "5000"})
+    private long routeCacheTtlMillis;       // 路由缓存存活时间，-1 表示每次都未命中
+
+    private LettuceConnectionFactory connectionFactory;
+    private RedisMessageListenerContainer listenerContainer;
+    private ConnectionRegistry connectionRegistry;
+    private String[] userIds;
+    private List<List<String>> batches;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+            System.getProperty("jmh.redis.host", "localhost"),
+            Integer.getInteger("jmh.redis.port", 6379));
+        configuration.setDatabase(Integer.getInteger("jmh.redis.database", 15));
+        connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+
+        RedisConfig redisConfig = new RedisConfig();
+        listenerContainer = redisConfig.redisMessageListenerContainer(connectionFactory);
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+
+        HeartbeatCoalescer heartbeatCoalescer = new HeartbeatCoalescer();
+        inject(heartbeatCoalescer, "stringRedisTemplate", stringRedisTemplate);
+
+        connectionRegistry = new ConnectionRegistry();
+        inject(connectionRegistry, "stringRedisTemplate", stringRedisTemplate);
+        inject(connectionRegistry, "heartbeatCoalescer", heartbeatCoalescer);
+        inject(connectionRegistry, "listenerContainer", listenerContainer);
+        inject(connectionRegistry, "nodeHealthMonitor", new LocalOnlyHealthMonitor());
+        inject(connectionRegistry, "meterRegistry", new SimpleMeterRegistry());
+        inject(connectionRegistry, "currentNodeId", NODE_ID);
+        inject(connectionRegistry, "routeCacheMaxSize", users);
+        inject(connectionRegistry, "routeCacheTtl", Duration.ofMillis(routeCacheTtlMillis));
+        connectionRegistry.init();
+
+        userIds = new String[users];
+        for (int i = 0; i < users; i++) {
+            userIds[i] = "jmh-user-" + i;
+            connectionRegistry.register(userIds[i], "jmh-session-" + i);
+        }
+
+        batches = new ArrayList<>();
+        for (int from = 0; from + BATCH_SIZE <= users; from += BATCH_SIZE) {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = from; i < from + BATCH_SIZE; i++) {
+                batch.add(userIds[i]);
+            }
+            batches.add(batch);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (int i = 0; i < users; i++) {
+            connectionRegistry.unregister(userIds[i], "jmh-session-" + i);
+        }
+        listenerContainer.stop();
+        connectionFactory.destroy();
+    }
+
+    /**
+     * 单个用户路由查询
+     */
+    @Benchmark
+    public Set<String> getNodeIds() {
+        cursor = (cursor + 1) % users;
+        return connectionRegistry.getNodeIds(userIds[cursor]);
+    }
+
+    /**
+     * 批量路由查询（BATCH_SIZE 个用户，一次 pipeline）
+     */
+    @Benchmark
+    public Map<String, Set<String>> getNodeIdsBatch() {
+        cursor = (cursor + 1) % batches.size();
+        return connectionRegistry.getNodeIds(batches.get(cursor));
+    }
+
+    /**
+     * 只有当前节点的健康监控器，所有会话都注册在当前节点
+     */
+    private static class LocalOnlyHealthMonitor extends NodeHealthMonitor {
+
+        @Override
+        public List<NodeInfo> getHealthyNodes() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package com.example.sse.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多节点进程内压测
+ * 在一个 JVM 中启动嵌入式 Redis 和 N 个应用节点，节点间通过 InMemoryBus 转发消息，完全离线运行
+ *
+ * 依次执行：建立连接 → 点对点发送 → 流式输出 → 全量广播 → 关闭一个节点测量故障转移
+ * 报告吞吐、投递延迟 p50/p99、每连接内存和故障转移时间
+ *
+ * 参数（key=value）：nodes=3 clients=2000 messages=20000 concurrency=64 streams=50 failover=true compression=false replay=false
+ * 以 sse. 开头的参数原样传给各节点，如 sse.stream.coalesce-window=100
+ */
+public final class ClusterLoadHarness {
+
+    private static final String LOAD_EVENT = "load";                 // 点对点压测事件
+    private static final String BROADCAST_EVENT = "load-broadcast";  // 广播压测事件
+    private static final String PROBE_EVENT = "probe";               // 故障转移探测事件
+
+    private final int nodeCount;
+    private final int clientCount;
+    private final int messageCount;
+    private final int concurrency;
+    private final int streamCount;
+    private final boolean failover;
+    private final boolean compression;   // 节点开启压缩，客户端请求 gzip 事件流
+    private final boolean replay;        // 节点开启回放日志，故障转移后重连回放错过的事件
+    private final List<String> overrides = new ArrayList<>();   // 传给各节点的额外配置
+
+    private final List<ClusterNode> nodes = new ArrayList<>();
+    private final List<SseClient> clients = new ArrayList<>();
+    private final Map<String, SseClient> clientsByUser = new ConcurrentHashMap<>();
+    private final ExecutorService httpExecutor = Executors.newFixedThreadPool(4);
+    private final ExecutorService senderExecutor;   // 发送 HTTP 请求的线程，同步发送，数量即并发度
+    private final ScheduledExecutorService reconnectScheduler = Executors.newSingleThreadScheduledExecutor();   // 按 retry 延迟重连
+    private final HttpClient httpClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .executor(httpExecutor)
+        .connectTimeout(Duration.ofSeconds(10))
+        .build();
+
+    // 各阶段的计数与延迟（纳秒）
+    private volatile CountDownLatch connectedLatch;
+    private volatile CountDownLatch deliveredLatch;
+    private volatile CountDownLatch streamLatch;
+    private volatile CountDownLatch broadcastLatch;
+    private final Histogram deliveryLatency = new ConcurrentHistogram(3);
+    private final Histogram broadcastLatency = new ConcurrentHistogram(3);
+    private final Histogram streamDuration = new ConcurrentHistogram(3);
+    private final Map<String, Long> streamStarts = new ConcurrentHashMap<>();
+    private final AtomicLong streamFrames = new AtomicLong();
+    private final AtomicLong lastDeliveryNanos = new AtomicLong();
+    private final Set<String> pendingFailover = ConcurrentHashMap.newKeySet();
+    private final Set<String> pendingReconnect = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lastReconnectNanos = new AtomicLong();
+    private final AtomicInteger reconnects = new AtomicInteger();
+
+    private ClusterLoadHarness(Map<String, String> args) {
+        this.nodeCount = Integer.parseInt(args.getOrDefault("nodes", "3"));
+        this.clientCount = Integer.parseInt(args.getOrDefault("clients", "2000"));
+        this.messageCount = Integer.parseInt(args.getOrDefault("messages", "20000"));
+        this.concurrency = Integer.parseInt(args.getOrDefault("concurrency", "64"));
+        this.streamCount = Integer.parseInt(args.getOrDefault("streams", "50"));
+        this.failover = Boolean.parseBoolean(args.getOrDefault("failover", "true"));
+        this.compression = Boolean.parseBoolean(args.getOrDefault("compression", "false"));
+        this.replay = Boolean.parseBoolean(args.getOrDefault("replay", "false"));
+        args.forEach((key, value) -> {
+            if (key.startsWith("sse.")) {
+                overrides.add(key + "=" + value);
+            }
+        });
+        this.senderExecutor = Executors.newFixedThreadPool(concurrency);
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = new HashMap<>();
+        for (String arg : argv) {
+            int index = arg.indexOf('=');
+            if (index > 0) {
+                args.put(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+        new ClusterLoadHarness(args).run();
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        int redisPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            redisPort = socket.getLocalPort();
+        }
+        RedisServer redisServer = new RedisServer(redisPort);
+        redisServer.start();
+        InMemoryBus bus = null;
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                nodes.add(ClusterNode.start("load-node-" + i, redisPort, compression, replay, overrides));
+            }
+            bus = new InMemoryBus(nodes);
+            bus.start();
+            report("Cluster", nodeCount + " nodes, embedded Redis on port " + redisPort);
+
+            connectClients();
+            sendMessages();
+            runStreams();
+            broadcast();
+            if (compression) {
+                reportCompression();
+            }
+            if (failover && nodeCount > 1) {
+                killNodeAndMeasureFailover();
+            }
+        } finally {
+            if (bus != null) {
+                bus.stop();
+            }
+            for (ClusterNode node : nodes) {
+                if (node.isRunning()) {
+                    node.stop();
+                }
+            }
+            redisServer.stop();
+            senderExecutor.shutdownNow();
+            reconnectScheduler.shutdownNow();
+            httpExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 建立连接，按节点轮询分配；报告建立速率和每连接内存
+     */
+    private void connectClients() throws InterruptedException {
+        long heapBefore = usedHeapAfterGc();
+        connectedLatch = new CountDownLatch(clientCount);
+        long start = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            SseClient client = new SseClient("load-user-" + i, httpClient, new ClientListener(), compression);
+            clients.add(client);
+            clientsByUser.put(client.getUserId(), client);
+            client.connect(nodes.get(i % nodeCount));
+        }
+        boolean completed = connectedLatch.await(120, TimeUnit.SECONDS);
+        long elapsed = System.nanoTime() - start;
+        long heapAfter = usedHeapAfterGc();
+
+        report("Connect", String.format("%d/%d clients in %dms (%.0f conn/s)%s",
+            clientCount - connectedLatch.getCount(), clientCount, TimeUnit.NANOSECONDS.toMillis(elapsed),
+            clientCount / seconds(elapsed), completed ? "" : " [timeout]"));
+        StringBuilder perNode = new StringBuilder();
+        for (ClusterNode node : nodes) {
+            perNode.append(node.getNodeId()).append('=').append(node.getConnectionCount()).append(' ');
+        }
+        report("Connections", perNode.toString().trim());
+        // 所有节点共享一个堆，只能测得总增量；客户端也在同一 JVM，结果包含客户端一侧的开销
+        report("Memory", String.format("%.1f KB per connection (heap delta %d MB, client and server side)",
+            (heapAfter - heapBefore) / 1024.0 / clientCount, (heapAfter - heapBefore) / 1024 / 1024));
+    }
+
+    /**
+     * 随机节点发送给随机用户，大部分请求需要跨节点路由
+     */
+    private void sendMessages() throws InterruptedException {
+        deliveredLatch = new CountDownLatch(messageCount);
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicInteger failures = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < messageCount; i++) {
+            inFlight.acquire();
+            SseClient target = clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
+            senderExecutor.execute(() -> {
+                String body = "{\"userId\":\"" + target.getUserId() + "\",\"eventName\":\"" + LOAD_EVENT
+                    + "\",\"message\":\"" + System.nanoTime() + "\"}";
+                if (!post(randomNode(), "/api/sse/send", body)) {
+                    failures.incrementAndGet();
+                }
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(concurrency);   // 等待所有请求返回
+        long requestElapsed = System.nanoTime() - start;
+        boolean completed = deliveredLatch.await(120, TimeUnit.SECONDS);
+        long deliveryElapsed = lastDeliveryNanos.get() - start;
+
+        report("Send", String.format("%d requests in %dms (%.0f req/s), %d failed",
+            messageCount, TimeUnit.NANOSECONDS.toMillis(requestElapsed), messageCount / seconds(requestElapsed), failures.get()));
+        report("Deliver", String.format("%d/%d delivered (%.0f msg/s)%s, latency %s",
+            messageCount - deliveredLatch.getCount(), messageCount, (messageCount - deliveredLatch.getCount()) / seconds(deliveryElapsed),
+            completed ? "" : " [timeout]", percentiles(deliveryLatency)));
+    }
+
+    /**
+     * 对部分用户启动流式输出，测量从请求到 stream-complete 的时长
+     */
+    private void runStreams() throws InterruptedException {
+        int count = Math.min(streamCount, clients.size());
+        streamLatch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            SseClient client = clients.get(i);
+            streamStarts.put(client.getUserId(), System.nanoTime());
+            senderExecutor.execute(() -> post(randomNode(), "/api/sse/stream", "{\"userId\":\"" + client.getUserId() + "\"}"));
+        }
+        boolean completed = streamLatch.await(120, TimeUnit.SECONDS);
+        long chunks = 0;
+        long chars = 0;
+        for (ClusterNode node : nodes) {
+            chunks += node.getEmittedChunks();
+            chars += node.getEmittedChars();
+        }
+        report("Stream", String.format("%d/%d streams completed%s, %d frames, emittedChunks=%d emittedChars=%d, duration %s",
+            count - streamLatch.getCount(), count, completed ? "" : " [timeout]", streamFrames.get(), chunks, chars,
+            percentiles(streamDuration)));
+    }
+
+    /**
+     * 一次全量广播，测量所有客户端收到的延迟分布
+     */
+    private void broadcast() throws InterruptedException {
+        broadcastLatch = new CountDownLatch(clientCount);
+        long start = System.nanoTime();
+        post(randomNode(), "/api/sse/broadcast",
+            "{\"eventName\":\"" + BROADCAST_EVENT + "\",\"message\":\"" + start + "\"}");
+        boolean completed = broadcastLatch.await(60, TimeUnit.SECONDS);
+        report("Broadcast", String.format("%d/%d clients reached in %dms%s, latency %s",
+            clientCount - broadcastLatch.getCount(), clientCount, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            completed ? "" : " [timeout]", percentiles(broadcastLatency)));
+    }
+
+    /**
+     * 报告各节点的压缩连接数与压缩率（压缩后 / 压缩前）
+     */
+    private void reportCompression() {
+        StringBuilder perNode = new StringBuilder();
+        for (ClusterNode node : nodes) {
+            perNode.append(String.format("%s=%d@%.2f ", node.getNodeId(), node.getCompressedConnections(), node.getCompressionRatio()));
+        }
+        report("Compression", perNode.toString().trim());
+    }
+
+    /**
+     * 关闭第一个节点，其客户端重连到其他节点；持续发送探测消息，直到所有受影响用户都收到
+     * 节点关闭时先排空：客户端收到带 retry 的 reconnect 事件，按建议的延迟分散重连，与进程崩溃后等待心跳超时的场景不同
+     */
+    private void killNodeAndMeasureFailover() throws InterruptedException {
+        ClusterNode victim = nodes.get(0);
+        for (SseClient client : clients) {
+            if (client.getNode() == victim) {
+                pendingFailover.add(client.getUserId());
+                pendingReconnect.add(client.getUserId());
+            }
+        }
+        int affected = pendingFailover.size();
+        long start = System.nanoTime();
+        victim.stop();
+
+        long deadline = start + TimeUnit.SECONDS.toNanos(90);
+        while (!pendingFailover.isEmpty() && System.nanoTime() < deadline) {
+            for (String userId : pendingFailover) {
+                String body = "{\"userId\":\"" + userId + "\",\"eventName\":\"" + PROBE_EVENT + "\",\"message\":\"probe\"}";
+                senderExecutor.execute(() -> post(randomNode(), "/api/sse/send", body));
+            }
+            Thread.sleep(200);
+        }
+        long elapsed = System.nanoTime() - start;
+        long reconnected = pendingReconnect.isEmpty() ? lastReconnectNanos.get() - start : elapsed;
+        report("Failover", String.format("%d/%d clients of %s reconnected in %dms (%d attempts), receiving again in %dms%s",
+            affected - pendingReconnect.size(), affected, victim.getNodeId(), TimeUnit.NANOSECONDS.toMillis(reconnected),
+            reconnects.get(), TimeUnit.NANOSECONDS.toMillis(elapsed), pendingFailover.isEmpty() ? "" : " [timeout]"));
+    }
+
+    /**
+     * 同步发送 POST 请求
+     * 不使用 sendAsync：单核机器上公共线程池退化为每个任务一个线程，回调开销会压过被测服务
+     */
+    private boolean post(ClusterNode node, String path, String body) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(node.getBaseUrl() + path))
+            .header("Content-Type", "application/json")
+            .timeout(Duration.ofSeconds(30))
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        try {
+            return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private ClusterNode randomNode() {
+        List<ClusterNode> live = new ArrayList<>();
+        for (ClusterNode node : nodes) {
+            if (node.isRunning()) {
+                live.add(node);
+            }
+        }
+        return live.get(ThreadLocalRandom.current().nextInt(live.size()));
+    }
+
+    private ClusterNode nextLiveNode(ClusterNode current) {
+        int index = nodes.indexOf(current);
+        for (int i = 1; i <= nodes.size(); i++) {
+            ClusterNode candidate = nodes.get((index + i) % nodes.size());
+            if (candidate.isRunning()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static double seconds(long nanos) {
+        return Math.max(nanos, 1) / 1_000_000_000.0;
+    }
+
+    private static String percentiles(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "n/a";
+        }
+        return String.format("p50=%.2fms p99=%.2fms max=%.2fms",
+            histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6, histogram.getMaxValue() / 1e6);
+    }
+
+    private static void report(String phase, String result) {
+        System.out.printf("[load] %-12s %s%n", phase, result);
+    }
+
+    /**
+     * 客户端事件处理：按事件类型记录各阶段的延迟
+     */
+    private class ClientListener implements SseClient.Listener {
+
+        @Override
+        public void onEvent(SseClient client, String eventName, String data) {
+            long now = System.nanoTime();
+            switch (eventName) {
+                case "connected":
+                    if (pendingReconnect.remove(client.getUserId())) {
+                        lastReconnectNanos.accumulateAndGet(now, Math::max);
+                    } else if (connectedLatch != null) {
+                        connectedLatch.countDown();
+                    }
+                    break;
+                case LOAD_EVENT:
+                    deliveryLatency.recordValue(Math.max(0, now - Long.parseLong(data)));
+                    lastDeliveryNanos.accumulateAndGet(now, Math::max);
+                    deliveredLatch.countDown();
+                    break;
+                case "stream":
+                    streamFrames.incrementAndGet();
+                    break;
+                case "stream-complete":
+                    Long started = streamStarts.remove(client.getUserId());
+                    if (started != null) {
+                        streamDuration.recordValue(now - started);
+                        streamLatch.countDown();
+                    }
+                    break;
+                case BROADCAST_EVENT:
+                    broadcastLatency.recordValue(Math.max(0, now - Long.parseLong(data)));
+                    broadcastLatch.countDown();
+                    break;
+                case PROBE_EVENT:
+                    pendingFailover.remove(client.getUserId());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onClosed(SseClient client) {
+            ClusterNode next = nextLiveNode(client.getNode());
+            if (next != null) {
+                reconnects.incrementAndGet();
+                long delay = client.takeRetryMillis();
+                if (delay > 0) {
+                    reconnectScheduler.schedule(() -> client.connect(next), delay, TimeUnit.MILLISECONDS);
+                } else {
+                    client.connect(next);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.sse.load;
+
+import com.example.sse.SseClusterApplication;
+import com.example.sse.manager.SseConnectionManager;
+import com.example.sse.manager.StreamSessionManager;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.stream.binder.test.InputDestination;
+import org.springframework.cloud.stream.binder.test.OutputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 进程内的一个应用节点
+ * 每个节点是独立的 Spring 上下文，消息总线使用 Spring Cloud Stream 测试绑定器，由 InMemoryBus 在节点间转发
+ */
+final class ClusterNode {
+
+    static final String ROUTE_INPUT = "sse.route.in";     // 点对点消息的输入目标
+    static final String FANOUT_INPUT = "sse.fanout.in";   // 全量广播的输入目标
+
+    private final String nodeId;      // 节点 ID
+    private final int port;           // HTTP 端口
+    private final ConfigurableApplicationContext context;
+    private volatile boolean running = true;
+
+    private ClusterNode(String nodeId, int port, ConfigurableApplicationContext context) {
+        this.nodeId = nodeId;
+        this.port = port;
+        this.context = context;
+    }
+
+    /**
+     * 启动节点
+     * @param nodeId 节点 ID
+     * @param redisPort 嵌入式 Redis 端口
+     * @param compression 是否开启事件流压缩
+     * @param replay 是否开启回放日志
+     * @param overrides 额外的配置，如 sse.stream.coalesce-window=100
+     * @return 节点
+     */
+    static ClusterNode start(String nodeId, int redisPort, boolean compression, boolean replay,
+                             List<String> overrides) throws IOException {
+        int port = freePort();
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--node.id=" + nodeId,
+                "--server.port=" + port,
+                "--server.address=127.0.0.1",
+                "--server.tomcat.max-connections=20000",
+                "--spring.redis.host=127.0.0.1",
+                "--spring.redis.port=" + redisPort,
+                "--sse.compression.enabled=" + compression,
+                "--sse.replay.enabled=" + replay,
+                "--spring.cloud.stream.default-binder=integration",
+                // 测试绑定器按目标名共用通道，输入改用独立目标，否则投递给本节点的消息会再次出现在输出中
+                "--spring.cloud.stream.bindings.sseRouteInput.destination=" + ROUTE_INPUT,
+                "--spring.cloud.stream.bindings.sseFanoutInput.destination=" + FANOUT_INPUT,
+                "--management.health.rabbit.enabled=false",
+                "--spring.jmx.enabled=false",
+                "--spring.main.banner-mode=off",
+                "--logging.level.com.example.sse=WARN",
+                "--logging.level.org.springframework.web=WARN"));
+        for (String override : overrides) {
+            args.add("--" + override);
+        }
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(
+            SseClusterApplication.class, TestChannelBinderConfiguration.class)
+            .web(WebApplicationType.SERVLET)
+            // 以命令行参数传入，优先级高于 application.yml
+            .run(args.toArray(new String[0]));
+        return new ClusterNode(nodeId, port, context);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * 关闭节点，模拟节点下线
+     */
+    void stop() {
+        running = false;
+        context.close();
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + port;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    InputDestination getInput() {
+        return context.getBean(InputDestination.class);
+    }
+
+    OutputDestination getOutput() {
+        return context.getBean(OutputDestination.class);
+    }
+
+    int getConnectionCount() {
+        return running ? context.getBean(SseConnectionManager.class).getConnectionCount() : 0;
+    }
+
+    int getCompressedConnections() {
+        return running ? context.getBean(SseConnectionManager.class).getCompressedConnections() : 0;
+    }
+
+    double getCompressionRatio() {
+        return running ? context.getBean(SseConnectionManager.class).getCompressionRatio() : 1;
+    }
+
+    long getEmittedChunks() {
+        return running ? context.getBean(StreamSessionManager.class).getEmittedChunks() : 0;
+    }
+
+    long getEmittedChars() {
+        return running ? context.getBean(StreamSessionManager.class).getEmittedChars() : 0;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.sse.load;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cloud.stream.binder.test.OutputDestination;
+import org.springframework.messaging.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 进程内消息总线
+ * 每个节点的测试绑定器只在自己的上下文内可见；这里从各节点的输出目标取出消息，
+ * 按 RabbitMQ 的语义转发：sse.route 按 targetNode 头投递给目标节点，sse.fanout 投递给所有节点；
+ * 投递到节点各自的输入目标（见 ClusterNode.ROUTE_INPUT / FANOUT_INPUT）
+ */
+@Slf4j
+final class InMemoryBus {
+
+    private static final String ROUTE_DESTINATION = "sse.route";     // 点对点路由目标
+    private static final String FANOUT_DESTINATION = "sse.fanout";   // 全量广播目标
+    private static final String TARGET_NODE_HEADER = "targetNode";   // 目标节点头
+    private static final long POLL_TIMEOUT_MILLIS = 50;
+
+    private final List<ClusterNode> nodes;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    InMemoryBus(List<ClusterNode> nodes) {
+        this.nodes = nodes;
+    }
+
+    void start() {
+        for (ClusterNode node : nodes) {
+            startWorker(node, ROUTE_DESTINATION);
+            startWorker(node, FANOUT_DESTINATION);
+        }
+    }
+
+    void stop() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+    }
+
+    private void startWorker(ClusterNode source, String destination) {
+        Thread worker = new Thread(() -> {
+            OutputDestination output = source.getOutput();
+            while (running && source.isRunning()) {
+                Message<byte[]> message;
+                try {
+                    message = output.receive(POLL_TIMEOUT_MILLIS, destination);
+                } catch (Exception e) {
+                    break;   // 节点已关闭
+                }
+                if (message != null) {
+                    forward(message, destination);
+                }
+            }
+        }, "bus-" + source.getNodeId() + "-" + destination);
+        worker.setDaemon(true);
+        worker.start();
+        workers.add(worker);
+    }
+
+    private void forward(Message<byte[]> message, String destination) {
+        if (FANOUT_DESTINATION.equals(destination)) {
+            for (ClusterNode node : nodes) {
+                deliver(node, message, ClusterNode.FANOUT_INPUT);
+            }
+            return;
+        }
+        Object targetNode = message.getHeaders().get(TARGET_NODE_HEADER);
+        for (ClusterNode node : nodes) {
+            if (node.getNodeId().equals(targetNode)) {
+                deliver(node, message, ClusterNode.ROUTE_INPUT);
+                return;
+            }
+        }
+        log.debug("Dropping message for unknown node: {}", targetNode);
+    }
+
+    private void deliver(ClusterNode node, Message<byte[]> message, String destination) {
+        if (!node.isRunning()) {
+            return;   // 与 RabbitMQ 匿名队列一致：节点下线后消息丢弃
+        }
+        try {
+            node.getInput().send(message, destination);
+        } catch (Exception e) {
+            log.warn("Failed to deliver message to node {}: {}", node.getNodeId(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.sse.load;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 模拟的 SSE 客户端
+ * 基于 JDK HttpClient 异步读取事件流，不为每个连接占用线程；记录最后事件 ID，重连时通过 Last-Event-ID 带回
+ * 记录服务端通过 retry 字段建议的重连延迟，由调用方在重连时使用
+ * 开启压缩时声明 Accept-Encoding: gzip，服务端返回 gzip 流时边收边解压
+ */
+final class SseClient {
+
+    /**
+     * 事件回调
+     */
+    interface Listener {
+
+        void onEvent(SseClient client, String eventName, String data);
+
+        void onClosed(SseClient client);
+    }
+
+    private final String userId;          // 用户 ID
+    private final HttpClient httpClient;
+    private final Listener listener;
+    private final boolean compression;    // 是否请求压缩事件流
+    private volatile ClusterNode node;    // 当前连接的节点
+    private volatile String lastEventId;  // 最后收到的事件 ID
+    private volatile long retryMillis;    // 服务端建议的重连延迟，0 表示立即重连
+
+    SseClient(String userId, HttpClient httpClient, Listener listener, boolean compression) {
+        this.userId = userId;
+        this.httpClient = httpClient;
+        this.listener = listener;
+        this.compression = compression;
+    }
+
+    /**
+     * 连接到指定节点
+     * @param target 节点
+     */
+    void connect(ClusterNode target) {
+        this.node = target;
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(target.getBaseUrl() + "/api/sse/connect/" + userId))
+            .header("Accept", "text/event-stream")
+            .timeout(Duration.ofHours(1))
+            .GET();
+        if (lastEventId != null) {
+            request.header("Last-Event-ID", lastEventId);
+        }
+        if (compression) {
+            request.header("Accept-Encoding", "gzip");
+        }
+        EventParser parser = new EventParser();
+        HttpResponse.BodyHandler<Void> handler = info -> info.headers().firstValue("Content-Encoding")
+            .filter("gzip"::equalsIgnoreCase).isPresent()
+            ? HttpResponse.BodySubscribers.fromSubscriber(new GunzipLines(parser))
+            : HttpResponse.BodySubscribers.fromLineSubscriber(parser);
+        httpClient.sendAsync(request.build(), handler)
+            .whenComplete((response, error) -> {
+                if (error != null) {
+                    parser.close();
+                }
+            });
+    }
+
+    /**
+     * 取出服务端建议的重连延迟，取出后清零
+     * @return 延迟毫秒数
+     */
+    long takeRetryMillis() {
+        long retry = retryMillis;
+        retryMillis = 0;
+        return retry;
+    }
+
+    String getUserId() {
+        return userId;
+    }
+
+    ClusterNode getNode() {
+        return node;
+    }
+
+    /**
+     * 按行解析 SSE 事件，空行表示一个事件结束
+     * 每次连接一个实例；流出错和请求失败可能都会到达，只通知一次关闭
+     */
+    private class EventParser implements Flow.Subscriber<String> {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private String eventId;
+        private String eventName;
+        private final StringBuilder data = new StringBuilder();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (line.isEmpty()) {
+                if (data.length() > 0) {
+                    if (eventId != null) {
+                        lastEventId = eventId;
+                    }
+                    listener.onEvent(SseClient.this, eventName != null ? eventName : "message", data.toString());
+                }
+                eventId = null;
+                eventName = null;
+                data.setLength(0);
+            } else if (line.startsWith("data:")) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(line, 5, line.length());
+            } else if (line.startsWith("event:")) {
+                eventName = line.substring(6);
+            } else if (line.startsWith("id:")) {
+                eventId = line.substring(3);
+            } else if (line.startsWith("retry:")) {
+                retryMillis = Long.parseLong(line.substring(6).trim());
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            close();
+        }
+
+        @Override
+        public void onComplete() {
+            close();
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                listener.onClosed(SseClient.this);
+            }
+        }
+    }
+
+    /**
+     * 边收边解压 gzip 流并按行交给解析器
+     * 服务端每批事件 sync-flush，收到的字节总能解压出完整的行；只跳过固定 10 字节的 gzip 头，不处理可选头字段
+     */
+    private static final class GunzipLines implements Flow.Subscriber<List<ByteBuffer>> {
+
+        private static final int GZIP_HEADER_SIZE = 10;
+
+        private final Flow.Subscriber<String> lines;
+        private final Inflater inflater = new Inflater(true);   // raw deflate，gzip 头单独跳过
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private final byte[] output = new byte[8192];
+        private int headerRemaining = GZIP_HEADER_SIZE;
+
+        GunzipLines(Flow.Subscriber<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            lines.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            try {
+                for (ByteBuffer buffer : buffers) {
+                    byte[] input = new byte[buffer.remaining()];
+                    buffer.get(input);
+                    int offset = Math.min(headerRemaining, input.length);
+                    headerRemaining -= offset;
+                    if (offset == input.length || inflater.finished()) {
+                        continue;   // gzip 头或流结尾的 CRC 与长度
+                    }
+                    inflater.setInput(input, offset, input.length - offset);
+                    int count;
+                    while ((count = inflater.inflate(output)) > 0) {
+                        splitLines(count);
+                    }
+                }
+            } catch (DataFormatException e) {
+                onError(e);
+            }
+        }
+
+        private void splitLines(int count) {
+            for (int i = 0; i < count; i++) {
+                if (output[i] == '\n') {
+                    lines.onNext(line.toString(StandardCharsets.UTF_8));
+                    line.reset();
+                } else {
+                    line.write(output[i]);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            inflater.end();
+            lines.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            inflater.end();
+            lines.onComplete();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.sse.controller;
+
+import com.example.sse.manager.ConnectAdmission;
+import com.example.sse.manager.SseConnectionManager;
+import com.example.sse.model.NodeInfo;
+import com.example.sse.registry.PlacementRing;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * SSE 连接端点（Servlet 传输，默认模式）
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/sse")
+@CrossOrigin(origins = "*", maxAge = 3600, exposedHeaders = {PlacementRing.HOME_NODE_HEADER, PlacementRing.HOME_URL_HEADER})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class ServletSseConnectController {
+
+    @Autowired
+    private SseConnectionManager connectionManager;   // SSE 连接管理器
+
+    @Autowired
+    private PlacementRing placementRing;              // 一致性哈希放置环
+
+    @Autowired
+    private ConnectAdmission connectAdmission;        // 建立连接的准入控制
+
+    /**
+     * 建立 SSE 连接
+     * 开启放置模式且当前节点不是用户的归属节点时，重定向到归属节点或在响应头中提示；重定向不经过准入控制
+     * 节点排空中、连接数达到上限或超过建立连接速率时，不访问 Redis 直接返回 503，客户端按 Retry-After 稍后重连
+     * @param userId 用户 ID
+     * @param topics 连接时订阅的主题，可选，如 ?topics=room-1,dashboard
+     * @param home 重定向时带上的归属节点 ID，非空时直接接受连接，避免各节点放置环短暂不一致时来回重定向
+     * @param lastEventIdHeader 断线重连时浏览器带回的最后事件 ID，非空时先回放错过的事件
+     * @param lastEventIdParam 客户端新建 EventSource 重连时通过查询参数带回的最后事件 ID，请求头为空时使用
+     * @param acceptEncoding 开启压缩时据此协商 gzip / deflate 压缩事件流
+     * @return SSE 发射器，重定向时没有响应体
+     */
+    @GetMapping("/connect/{userId}")
+    public ResponseEntity<ResponseBodyEmitter> connect(@PathVariable String userId,
+                                                     @RequestParam(required = false) List<String> topics,
+                                                     @RequestParam(value = PlacementRing.HOME_PARAM, required = false) String home,
+                                                     @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+                                                     @RequestParam(value = "lastEventId", required = false) String lastEventIdParam,
+                                                     @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        String lastEventId = lastEventIdHeader != null ? lastEventIdHeader : lastEventIdParam;
+        log.info("SSE connection request: userId={}, topics={}, lastEventId={}", userId, topics, lastEventId);
+
+        // 先决定是否重定向：只被重定向到归属节点的请求不占用本节点的准入令牌，由接受连接的节点计入
+        NodeInfo homeNode = home == null ? placementRing.remoteHome(userId) : null;
+        URI homeUri = null;
+        if (homeNode != null) {
+            homeUri = ServletUriComponentsBuilder.fromCurrentRequest()
+                .host(homeNode.getHost())
+                .port(homeNode.getPort())
+                .replaceQueryParam(PlacementRing.HOME_PARAM, homeNode.getNodeId())
+                .build()
+                .toUri();
+            if (placementRing.getMode() == PlacementRing.Mode.REDIRECT) {
+                log.debug("Redirecting userId={} to home node {}", userId, homeNode.getNodeId());
+                return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT).location(homeUri).build();
+            }
+        }
+
+        ConnectAdmission.Decision decision = connectAdmission.tryAdmit();
+        if (decision != ConnectAdmission.Decision.ACCEPTED) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(connectAdmission.retryAfterSeconds(decision)))
+                .build();
+        }
+
+        if (homeNode == null) {
+            return ResponseEntity.ok(connectionManager.createConnection(userId, topics, lastEventId, acceptEncoding));
+        }
+        return ResponseEntity.ok()
+            .header(PlacementRing.HOME_NODE_HEADER, homeNode.getNodeId())
+            .header(PlacementRing.HOME_URL_HEADER, homeUri.toString())
+            .body(connectionManager.createConnection(userId, topics, lastEventId, acceptEncoding));
+    }
+}
@@ -1,17 +1,35 @@
 package com.example.sse.controller;
 
 import com.example.sse.manager.SseConnectionManager;
+import com.example.sse.manager.StreamSessionManager;
+import com.example.sse.model.BatchSendRequest;
+import com.example.sse.model.NodeInfo;
+import com.example.sse.model.SseMessage;
 import com.example.sse.registry.ConnectionRegistry;
+import com.example.sse.registry.PlacementRing;
+import com.example.sse.registry.ReplayLog;
+import com.example.sse.registry.TopicRegistry;
+import com.example.sse.stream.SseMessageListener;
 import com.example.sse.stream.SseMessageSender;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * SSE 管理 API
+ * 与传输方式无关，Servlet 与 Reactive 模式共用；建立连接的端点见 *SseConnectController
+ */
 @Slf4j
 @RestController
 @RequestMapping("/api/sse")
@@ -21,25 +39,33 @@ public class SseController {
     @Autowired
     private SseConnectionManager connectionManager;   // SSE 连接管理器
 
+    @Autowired
+    private StreamSessionManager streamSessionManager;   // 流式输出会话管理器
+
     @Autowired
     private ConnectionRegistry connectionRegistry;    // 连接注册中心
 
+    @Autowired
+    private TopicRegistry topicRegistry;         // 主题订阅节点注册中心
+
     @Autowired
     private SseMessageSender messageSender;      // 消息发送器
 
-    /**
-     * 建立 SSE 连接
-     * @param userId 用户 ID
-     * @return SSE 发射器
-     */
-    @GetMapping("/connect/{userId}")
-    public SseEmitter connect(@PathVariable String userId) {
-        log.info("SSE connection request: userId={}", userId);
-        return connectionManager.createConnection(userId);
-    }
+    @Autowired
+    private SseMessageListener messageListener;  // 消息监听器
+
+    @Autowired
+    private MeterRegistry meterRegistry;         // 指标注册表
+
+    @Autowired
+    private PlacementRing placementRing;         // 一致性哈希放置环
+
+    @Autowired
+    private ReplayLog replayLog;                 // 用户事件回放日志，接收发送请求时写入一次
 
     /**
      * 发送消息给指定用户
+     * 先写入回放日志分配事件 ID，用户暂时离线（断线重连中）时事件也已记录；ID 随消息路由到用户所在的各个节点
      * @param request 请求参数
      * @return 响应结果
      */
@@ -59,35 +85,173 @@ public class SseController {
             return ResponseEntity.badRequest().body(response);
         }
 
-        String nodeId = connectionRegistry.getNodeId(userId);
-        if (nodeId == null) {
+        if (eventName != null && eventName.isEmpty()) {
+            eventName = null;
+        }
+        if (SseMessage.Command.isReserved(eventName)) {
+            response.put("success", false);
+            response.put("message", "eventName " + eventName + " is reserved");
+            return ResponseEntity.badRequest().body(response);
+        }
+        String eventId = replayLog.append(userId, eventName, message);
+
+        // 路由决策耗时：查询所在节点并分发到本地或远程节点
+        Timer.Sample routing = Timer.start(meterRegistry);
+
+        // 放置模式：归属节点由一致性哈希算出，不查询注册中心
+        NodeInfo home = placementRing.isRouting() ? placementRing.remoteHome(userId) : null;
+        if (home != null) {
+            messageSender.sendToHomeNode(home.getNodeId(), userId, eventId, eventName, message);
+            routing.stop(meterRegistry.timer("sse.send.routing", "result", "placed"));
+            // 未查询注册中心，用户可能不在线：只表示已交给归属节点，投递未确认
+            response.put("success", true);
+            response.put("confirmed", false);
+            response.put("message", "Message routed to home node, delivery not confirmed");
+            response.put("nodeId", home.getNodeId());
+            response.put("nodeIds", Set.of(home.getNodeId()));
+            return ResponseEntity.ok(response);
+        }
+
+        Set<String> nodeIds = connectionRegistry.getNodeIds(userId);
+        if (nodeIds.isEmpty()) {
+            routing.stop(meterRegistry.timer("sse.send.routing", "result", "offline"));
             response.put("success", false);
             response.put("message", "User not connected");
             return ResponseEntity.ok(response);
         }
 
-        if (connectionRegistry.isLocalNode(userId)) {
-            // 本地节点，直接发送
-            boolean sent = eventName != null && !eventName.isEmpty()
-                ? connectionManager.sendMessage(userId, eventName, message)
-                : connectionManager.sendMessage(userId, message);
-
-            response.put("success", sent);
-            response.put("message", sent ? "Message sent directly" : "Failed to send message");
-            response.put("nodeId", nodeId);
-        } else {
-            // 远程节点，通过消息队列广播
-            if (eventName != null && !eventName.isEmpty()) {
-                messageSender.broadcast(userId, eventName, message);
+        // 用户的会话可能分布在多个节点，每个节点只发送一条消息
+        boolean sent = true;
+        for (String nodeId : nodeIds) {
+            if (connectionRegistry.isCurrentNode(nodeId)) {
+                // 本地节点，直接发送给该用户的所有本地会话
+                sent &= connectionManager.sendEvent(userId, eventId, eventName, message);
             } else {
-                messageSender.broadcast(userId, message);
+                // 远程节点，通过消息队列路由到目标节点
+                messageSender.sendEventToNode(nodeId, userId, eventId, eventName, message);
             }
+        }
+        routing.stop(meterRegistry.timer("sse.send.routing", "result", "routed"));
 
-            response.put("success", true);
-            response.put("message", "Message broadcasted to target node");
-            response.put("nodeId", nodeId);
+        response.put("success", sent);
+        response.put("confirmed", true);   // 已由注册中心确认用户在线
+        response.put("message", sent ? "Message delivered to " + nodeIds.size() + " node(s)" : "Failed to send message");
+        response.put("nodeId", String.join(",", nodeIds));
+        response.put("nodeIds", nodeIds);
+
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 批量发送消息
+     * 一次 pipeline 查询所有接收者所在节点，按节点分组：
+     * 本地用户直接发送，每个远程节点只发送一条批量 MQ 消息
+     * 放置模式下归属其他节点的用户直接按放置环分组，不查询注册中心
+     * 所有消息先通过一次 pipeline 写入回放日志
+     * @param request 批量发送请求
+     * @return 每个接收者的发送结果
+     */
+    @PostMapping("/send/batch")
+    public ResponseEntity<Map<String, Object>> sendBatch(@RequestBody BatchSendRequest request) {
+        List<BatchSendRequest.Item> items = new ArrayList<>();
+        if (request.getMessages() != null) {
+            items.addAll(request.getMessages());
+        }
+        if (request.getUserIds() != null && request.getMessage() != null) {
+            for (String userId : request.getUserIds()) {
+                BatchSendRequest.Item item = new BatchSendRequest.Item();
+                item.setUserId(userId);
+                item.setEventName(request.getEventName());
+                item.setMessage(request.getMessage());
+                items.add(item);
+            }
+        }
+
+        log.info("Batch send request: size={}", items.size());
+
+        Map<String, Object> response = new HashMap<>();
+
+        if (items.isEmpty() || items.stream().anyMatch(item -> item.getUserId() == null || item.getMessage() == null)) {
+            response.put("success", false);
+            response.put("message", "userIds + message or messages[] with userId and message are required");
+            return ResponseEntity.badRequest().body(response);
+        }
+        if (items.stream().anyMatch(item -> SseMessage.Command.isReserved(item.getEventName()))) {
+            response.put("success", false);
+            response.put("message", "messages[] contain a reserved eventName");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        Map<String, NodeInfo> homes = new HashMap<>();   // 按放置环路由的用户 -> 归属节点
+        List<String> userIds = new ArrayList<>();
+        for (BatchSendRequest.Item item : items) {
+            NodeInfo home = placementRing.isRouting() ? placementRing.remoteHome(item.getUserId()) : null;
+            if (home != null) {
+                homes.put(item.getUserId(), home);
+            } else {
+                userIds.add(item.getUserId());
+            }
+        }
+        Map<String, Set<String>> userNodes = connectionRegistry.getNodeIds(userIds);
+
+        long now = System.currentTimeMillis();
+        List<SseMessage> events = new ArrayList<>(items.size());
+        for (BatchSendRequest.Item item : items) {
+            String eventName = item.getEventName() != null && !item.getEventName().isEmpty() ? item.getEventName() : null;
+            events.add(new SseMessage(item.getUserId(), eventName, item.getMessage(), now, null, null,
+                homes.containsKey(item.getUserId()), null, null));
         }
+        List<String> eventIds = replayLog.appendAll(events);
+
+        List<Map<String, Object>> results = new ArrayList<>(items.size());
+        Map<String, List<SseMessage>> remoteBatches = new LinkedHashMap<>();   // nodeId -> 发往该节点的消息
+        int delivered = 0;
+        int unconfirmed = 0;   // 按放置环路由、未查询注册中心的用户数
+        for (int i = 0; i < events.size(); i++) {
+            SseMessage event = events.get(i);
+            event.setEventId(eventIds.get(i));
+            String userId = event.getUserId();
+            NodeInfo home = homes.get(userId);
+            Set<String> nodeIds = home != null ? Set.of(home.getNodeId()) : userNodes.get(userId);
+
+            String status;
+            if (nodeIds.isEmpty()) {
+                status = "not_connected";
+            } else {
+                boolean sent = true;
+                for (String nodeId : nodeIds) {
+                    if (connectionRegistry.isCurrentNode(nodeId)) {
+                        sent &= connectionManager.sendEvent(userId, event.getEventId(), event.getEventName(), event.getData());
+                    } else {
+                        remoteBatches.computeIfAbsent(nodeId, k -> new ArrayList<>()).add(event);
+                    }
+                }
+                status = sent ? (nodeIds.size() == 1 && connectionRegistry.isCurrentNode(nodeIds.iterator().next())
+                    ? "delivered" : "routed") : "failed";
+                if (sent) {
+                    delivered++;
+                }
+            }
 
+            Map<String, Object> result = new HashMap<>();
+            result.put("userId", userId);
+            result.put("status", status);
+            result.put("confirmed", home == null);   // 与 /send 相同：放置路由未确认用户在线，投递未确认
+            result.put("nodeIds", nodeIds);
+            if (home != null) {
+                unconfirmed++;
+            }
+            results.add(result);
+        }
+
+        remoteBatches.forEach(messageSender::sendBatchToNode);
+
+        response.put("success", true);
+        response.put("total", items.size());
+        response.put("delivered", delivered);
+        response.put("unconfirmed", unconfirmed);
+        response.put("remoteNodes", remoteBatches.size());
+        response.put("results", results);
         return ResponseEntity.ok(response);
     }
 
@@ -111,8 +275,8 @@ public class SseController {
             return ResponseEntity.badRequest().body(response);
         }
 
-        String nodeId = connectionRegistry.getNodeId(userId);
-        if (nodeId == null) {
+        Set<String> nodeIds = connectionRegistry.getNodeIds(userId);
+        if (nodeIds.isEmpty()) {
             response.put("success", false);
             response.put("message", "User not connected");
             return ResponseEntity.ok(response);
@@ -121,36 +285,192 @@ public class SseController {
         // 流式输出文本
         String streamText = "这是一个模拟的AI流式输出示例。在真实的AI应用中，这里会是AI模型生成的文本内容，逐字逐句地推送给客户端。这种流式输出方式可以提供更好的用户体验，让用户实时看到AI的响应过程。";
 
-        if (connectionRegistry.isLocalNode(userId+"1")) {
-            // 本地节点，直接流式发送
-            new Thread(() -> {
-                try {
-                    for (int i = 0; i < streamText.length(); i++) {
-                        String str = String.valueOf(streamText.charAt(i));
-                        connectionManager.sendMessage(userId, "stream", str);
-                        Thread.sleep(50);  // 每个字符间隔 50 毫秒
-                    }
-                    // 发送流式输出完成事件
-                    connectionManager.sendMessage(userId, "stream-complete", "completed");
-                    log.info("Stream output completed for userId: {}", userId);
-                } catch (InterruptedException e) {
-                    log.error("Stream output interrupted for userId: {}", userId, e);
-                    Thread.currentThread().interrupt();
+        String streamId = null;
+        for (String nodeId : nodeIds) {
+            if (connectionRegistry.isCurrentNode(nodeId)) {
+                // 本地节点，由共享调度器驱动流式发送
+                streamId = streamSessionManager.start(userId, streamText);
+                if (streamId == null) {
+                    response.put("success", false);
+                    response.put("message", "Too many concurrent streams");
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
                 }
-            }).start();
+            } else {
+                // 远程节点，通过消息队列通知目标节点开始流式输出
+                messageSender.sendCommandToNode(nodeId, userId, SseMessage.Command.START_STREAM, streamText);
+            }
+        }
 
-            response.put("success", true);
-            response.put("message", "Stream output started");
-            response.put("nodeId", nodeId);
-        } else {
-            // 远程节点，通过消息队列通知目标节点开始流式输出
-            messageSender.broadcast(userId, "start-stream", streamText);
+        response.put("success", true);
+        response.put("message", "Stream output started on " + nodeIds.size() + " node(s)");
+        response.put("nodeId", String.join(",", nodeIds));
+        response.put("nodeIds", nodeIds);
+        if (streamId != null) {
+            response.put("streamId", streamId);
+        }
 
-            response.put("success", true);
-            response.put("message", "Stream output request sent to target node");
-            response.put("nodeId", nodeId);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 取消指定用户正在进行的流式输出
+     * @param userId 用户 ID
+     * @return 响应结果
+     */
+    @PostMapping("/stream/cancel/{userId}")
+    public ResponseEntity<Map<String, Object>> cancelStream(@PathVariable String userId) {
+        log.info("Cancel stream request: userId={}", userId);
+
+        Map<String, Object> response = new HashMap<>();
+        Set<String> nodeIds = connectionRegistry.getNodeIds(userId);
+        int cancelledLocally = 0;
+        for (String nodeId : nodeIds) {
+            if (connectionRegistry.isCurrentNode(nodeId)) {
+                cancelledLocally = streamSessionManager.cancelByUser(userId);
+            } else {
+                messageSender.sendCommandToNode(nodeId, userId, SseMessage.Command.CANCEL_STREAM, null);
+            }
         }
 
+        response.put("success", !nodeIds.isEmpty());
+        response.put("cancelledLocally", cancelledLocally);
+        response.put("nodeIds", nodeIds);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 用户订阅主题
+     * 用户在所有节点上的会话都会订阅
+     * @param request 请求参数
+     * @return 响应结果
+     */
+    @PostMapping("/subscribe")
+    public ResponseEntity<Map<String, Object>> subscribe(@RequestBody Map<String, String> request) {
+        return changeSubscription(request, true);
+    }
+
+    /**
+     * 用户取消订阅主题
+     * @param request 请求参数
+     * @return 响应结果
+     */
+    @PostMapping("/unsubscribe")
+    public ResponseEntity<Map<String, Object>> unsubscribe(@RequestBody Map<String, String> request) {
+        return changeSubscription(request, false);
+    }
+
+    private ResponseEntity<Map<String, Object>> changeSubscription(Map<String, String> request, boolean subscribe) {
+        String userId = request.get("userId");
+        String topic = request.get("topic");
+
+        log.info("{} request: userId={}, topic={}", subscribe ? "Subscribe" : "Unsubscribe", userId, topic);
+
+        Map<String, Object> response = new HashMap<>();
+
+        if (userId == null || topic == null) {
+            response.put("success", false);
+            response.put("message", "userId and topic are required");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        Set<String> nodeIds = connectionRegistry.getNodeIds(userId);
+        if (nodeIds.isEmpty()) {
+            response.put("success", false);
+            response.put("message", "User not connected");
+            return ResponseEntity.ok(response);
+        }
+
+        for (String nodeId : nodeIds) {
+            if (connectionRegistry.isCurrentNode(nodeId)) {
+                if (subscribe) {
+                    connectionManager.subscribeUser(userId, topic);
+                } else {
+                    connectionManager.unsubscribeUser(userId, topic);
+                }
+            } else {
+                // 远程节点，通过消息队列通知目标节点修改订阅
+                messageSender.sendCommandToNode(nodeId, userId,
+                    subscribe ? SseMessage.Command.SUBSCRIBE_TOPIC : SseMessage.Command.UNSUBSCRIBE_TOPIC, topic);
+            }
+        }
+
+        response.put("success", true);
+        response.put("topic", topic);
+        response.put("nodeIds", nodeIds);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 发布消息到主题
+     * 每个有订阅者的节点只收到一条消息
+     * @param topic 主题
+     * @param request 请求参数
+     * @return 响应结果
+     */
+    @PostMapping("/publish/{topic}")
+    public ResponseEntity<Map<String, Object>> publish(@PathVariable String topic,
+                                                       @RequestBody Map<String, String> request) {
+        String message = request.get("message");
+        String eventName = request.get("eventName");
+        if (eventName != null && eventName.isEmpty()) {
+            eventName = null;
+        }
+
+        log.info("Publish request: topic={}, eventName={}", topic, eventName);
+
+        Map<String, Object> response = new HashMap<>();
+
+        if (message == null) {
+            response.put("success", false);
+            response.put("message", "message is required");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        Set<String> nodeIds = topicRegistry.getNodeIds(topic);
+        int localDelivered = 0;
+        for (String nodeId : nodeIds) {
+            if (connectionRegistry.isCurrentNode(nodeId)) {
+                localDelivered = connectionManager.publishToTopic(topic, eventName, message);
+            } else {
+                messageSender.publishToNode(nodeId, topic, eventName, message);
+            }
+        }
+
+        response.put("success", true);
+        response.put("topic", topic);
+        response.put("nodeIds", nodeIds);
+        response.put("localDelivered", localDelivered);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 广播消息给集群中所有连接（系统通知）
+     * 每个节点收到一条 MQ 消息，编码一次后并发写给本地所有连接
+     * @param request 请求参数
+     * @return 响应结果
+     */
+    @PostMapping("/broadcast")
+    public ResponseEntity<Map<String, Object>> broadcast(@RequestBody Map<String, String> request) {
+        String message = request.get("message");
+        String eventName = request.get("eventName");
+        if (eventName != null && eventName.isEmpty()) {
+            eventName = null;
+        }
+
+        log.info("Broadcast request: eventName={}", eventName);
+
+        Map<String, Object> response = new HashMap<>();
+
+        if (message == null) {
+            response.put("success", false);
+            response.put("message", "message is required");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        messageSender.broadcastToAll(eventName, message);
+
+        response.put("success", true);
+        response.put("message", "Broadcast sent to all nodes");
         return ResponseEntity.ok(response);
     }
 
@@ -186,13 +506,14 @@ public class SseController {
     public ResponseEntity<Map<String, Object>> getConnectionStatus(@PathVariable String userId) {
         Map<String, Object> response = new HashMap<>();
 
-        String nodeId = connectionRegistry.getNodeId(userId);
-        boolean isConnected = nodeId != null;
-        boolean isLocal = connectionRegistry.isLocalNode(userId);
+        Set<String> nodeIds = connectionRegistry.getNodeIds(userId);
+        boolean isConnected = !nodeIds.isEmpty();
+        boolean isLocal = connectionManager.hasConnection(userId);
 
         response.put("userId", userId);
         response.put("connected", isConnected);
-        response.put("nodeId", nodeId);
+        response.put("nodeId", isLocal ? connectionRegistry.getCurrentNodeId() : connectionRegistry.getNodeId(userId));
+        response.put("nodeIds", nodeIds);
         response.put("isLocal", isLocal);
         response.put("localConnections", connectionManager.getConnectionCount());
 
@@ -207,7 +528,28 @@ public class SseController {
     public ResponseEntity<Map<String, Object>> getStats() {
         Map<String, Object> response = new HashMap<>();
         response.put("localConnections", connectionManager.getConnectionCount());
-        response.put("nodeId", connectionRegistry.getNodeId("test"));
+        response.put("nodeId", connectionRegistry.getCurrentNodeId());
+        response.put("routeCacheSize", connectionRegistry.getRouteCacheSize());
+        response.put("pendingRegistrations", connectionRegistry.getPendingRegistrations());
+        response.put("placementMode", placementRing.getMode());
+        response.put("placementNodes", placementRing.getNodeCount());
+        response.put("localTopics", connectionManager.getTopicCount());
+        response.put("lastBroadcastMillis", connectionManager.getLastBroadcastMillis());
+        response.put("lastBroadcastSessions", connectionManager.getLastBroadcastSessions());
+        response.put("outboundQueuedFrames", connectionManager.getQueuedFrames());
+        response.put("outboundDroppedFrames", connectionManager.getDroppedFrames());
+        response.put("slowConsumerDisconnects", connectionManager.getSlowConsumerDisconnects());
+        response.put("keepalivePings", connectionManager.getKeepalivePings());
+        response.put("reapedConnections", connectionManager.getReapedConnections());
+        response.put("compressedConnections", connectionManager.getCompressedConnections());
+        response.put("compressionRatio", connectionManager.getCompressionRatio());
+        response.put("busPendingMessages", messageListener.getPendingMessages());
+        response.put("activeStreams", streamSessionManager.getActiveStreamCount());
+        response.put("emittedChunks", streamSessionManager.getEmittedChunks());
+        response.put("emittedChars", streamSessionManager.getEmittedChars());
+        response.put("completedStreams", streamSessionManager.getCompletedStreams());
+        response.put("cancelledStreams", streamSessionManager.getCancelledStreams());
+        response.put("rejectedStreams", streamSessionManager.getRejectedStreams());
         return ResponseEntity.ok(response);
     }
 }
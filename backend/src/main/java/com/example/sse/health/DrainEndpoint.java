@@ -0,0 +1,42 @@
+package com.example.sse.health;
+
+import com.example.sse.manager.SseConnectionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 节点排空端点
+ * GET /actuator/drain 查询排空状态，POST /actuator/drain 开始排空（后台执行，立即返回）
+ */
+@Component
+@Endpoint(id = "drain")
+public class DrainEndpoint {
+
+    @Autowired
+    private NodeDrainer nodeDrainer;                  // 节点排空
+
+    @Autowired
+    private SseConnectionManager connectionManager;   // SSE 连接管理器
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("state", nodeDrainer.getState());
+        response.put("notified", nodeDrainer.getNotified());
+        response.put("connections", connectionManager.getConnectionCount());
+        return response;
+    }
+
+    @WriteOperation
+    public Map<String, Object> drain() {
+        Map<String, Object> response = status();
+        response.put("started", nodeDrainer.startDrain());
+        return response;
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.sse.health;
+
+import com.example.sse.manager.SseConnectionManager;
+import com.example.sse.registry.ConnectionRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 节点排空
+ * 应用关闭时（或通过 /actuator/drain 手动触发）不再接受新连接，先一次 pipeline 注销本节点所有会话并下线，
+ * 其他节点立即停止向本节点路由；然后分批通知现有客户端带随机 retry 重连到其他节点，滚动发布时客户端不会同时重连
+ *
+ * 关闭阶段与 Web 服务器优雅关闭同为 DEFAULT_PHASE，先于 Web 服务器停止（DEFAULT_PHASE - 1）和消息绑定停止，
+ * 排空期间连接仍可写出；排空总时长不超过 sse.drain.max-duration，应小于 spring.lifecycle.timeout-per-shutdown-phase
+ */
+@Slf4j
+@Service
+public class NodeDrainer implements SmartLifecycle {
+
+    /**
+     * 排空状态
+     */
+    public enum State {
+        SERVING,    // 正常服务
+        DRAINING,   // 排空中
+        DRAINED     // 已排空下线
+    }
+
+    private static final long CLOSE_POLL_MILLIS = 50;   // 等待连接关闭的轮询间隔
+
+    @Autowired
+    private SseConnectionManager connectionManager;   // SSE 连接管理器
+
+    @Autowired
+    private ConnectionRegistry connectionRegistry;    // 连接注册中心
+
+    @Autowired
+    private NodeHealthMonitor nodeHealthMonitor;      // 节点健康监控器
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;   // 发布就绪状态变化
+
+    @Value("${sse.drain.batch-size:200}")
+    private int batchSize;               // 每批通知重连的连接数
+
+    @Value("${sse.drain.batch-interval:100}")
+    private long batchIntervalMillis;    // 批次间隔（毫秒）
+
+    @Value("${sse.drain.retry-min:1000}")
+    private long retryMinMillis;         // 建议客户端重连延迟下限（毫秒）
+
+    @Value("${sse.drain.retry-max:10000}")
+    private long retryMaxMillis;         // 建议客户端重连延迟上限（毫秒），每个连接在区间内随机
+
+    @Value("${sse.drain.close-timeout:5000}")
+    private long closeTimeoutMillis;     // 通知完成后等待连接关闭的最长时间（毫秒），超时强制关闭
+
+    @Value("${sse.drain.max-duration:25000}")
+    private long maxDurationMillis;      // 排空最长时间（毫秒），连接多时缩短批次间隔，保证在关闭阶段超时前完成
+
+    private volatile State state = State.SERVING;   // 当前排空状态
+    private volatile boolean running;               // 生命周期状态
+    private volatile int notified;                  // 已通知重连的连接数
+
+    /**
+     * 排空当前节点，已排空或正在排空时等待其完成后直接返回
+     */
+    public synchronized void drain() {
+        if (state != State.SERVING) {
+            return;
+        }
+        state = State.DRAINING;
+        long start = System.currentTimeMillis();
+
+        // 负载均衡器不再分配新请求，/connect 直接拒绝
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        connectionManager.beginMigration();
+
+        // 立即注销并下线：其他节点不再向本节点路由，排空期间发给这些用户的事件由重连后的回放补齐
+        int unregistered = connectionRegistry.unregisterAllLocal();
+        nodeHealthMonitor.leave();
+
+        List<String> sessionIds = connectionManager.getSessionIds();
+        int batches = (sessionIds.size() + batchSize - 1) / batchSize;
+        long pacingBudget = Math.max(0, maxDurationMillis - closeTimeoutMillis);
+        long interval = batches > 1 ? Math.min(batchIntervalMillis, pacingBudget / (batches - 1)) : 0;
+        log.info("Draining node {}: {} connections, batchSize={}, batchInterval={}ms",
+            connectionRegistry.getCurrentNodeId(), sessionIds.size(), batchSize, interval);
+
+        boolean paced = true;
+        for (int from = 0; from < sessionIds.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, sessionIds.size());
+            for (String sessionId : sessionIds.subList(from, to)) {
+                if (connectionManager.migrateSession(sessionId, nextRetryMillis())) {
+                    notified++;
+                }
+            }
+            if (paced && interval > 0 && to < sessionIds.size()) {
+                paced = pause(interval);   // 被中断时不再分批等待，尽快完成排空
+            }
+        }
+
+        // 等待已通知的连接写出 reconnect 事件并关闭，不超过排空最长时间
+        long deadline = Math.min(System.currentTimeMillis() + closeTimeoutMillis, start + maxDurationMillis);
+        while (connectionManager.getConnectionCount() > 0 && System.currentTimeMillis() < deadline && paced) {
+            paced = pause(CLOSE_POLL_MILLIS);
+        }
+        int forced = connectionManager.closeAll();
+
+        // 排空开始前刚建立、注册尚未写入的会话
+        unregistered += connectionRegistry.unregisterAllLocal();
+        state = State.DRAINED;
+        log.info("Node {} drained in {}ms: notified={}, forced={}, unregistered={}",
+            connectionRegistry.getCurrentNodeId(), System.currentTimeMillis() - start, notified, forced, unregistered);
+    }
+
+    /**
+     * 在后台线程开始排空，用于手动触发
+     * @return 是否由本次调用开始排空
+     */
+    public boolean startDrain() {
+        if (state != State.SERVING) {
+            return false;
+        }
+        Thread thread = new Thread(this::drain, "sse-drain");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * 是否已开始排空，排空后不再接受新连接
+     * @return 是否排空中或已排空
+     */
+    public boolean isDraining() {
+        return state != State.SERVING;
+    }
+
+    /**
+     * 获取排空状态
+     * @return 排空状态
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 获取已通知重连的连接数
+     * @return 连接数
+     */
+    public int getNotified() {
+        return notified;
+    }
+
+    /**
+     * 获取建议客户端等待的重连延迟，拒绝新连接时也使用
+     * @return 在 [retry-min, retry-max] 之间随机的毫秒数
+     */
+    public long nextRetryMillis() {
+        return retryMaxMillis > retryMinMillis
+            ? ThreadLocalRandom.current().nextLong(retryMinMillis, retryMaxMillis + 1)
+            : retryMinMillis;
+    }
+
+    private boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        drain();
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE;
+    }
+}
@@ -1,31 +1,58 @@
 package com.example.sse.health;
 
+import com.example.sse.model.ConnectionInfo;
 import com.example.sse.model.NodeInfo;
+import com.example.sse.registry.ConnectionRegistry;
+import com.example.sse.registry.TopicRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * 节点健康监控
+ * 每个节点在内存中维护成员表，由 Redis 频道上的 join / heartbeat / leave 事件推送更新，
+ * 定期与 Redis 中的节点信息对账；发送路径上的健康检查只读本地成员表，不访问 Redis
+ */
 @Slf4j
 @Service
 public class NodeHealthMonitor {
 
-    private static final String NODE_KEY_PREFIX = "sse:node:";              // 用户连接节点映射 Key 前缀
     private static final String NODE_INFO_KEY_PREFIX = "sse:node:info:";   // 节点信息 Key 前缀
     private static final String ALL_NODES_KEY = "sse:nodes:all";            // 所有节点集合 Key
-    private static final long NODE_HEARTBEAT_INTERVAL_SECONDS = 10;          // 心跳间隔（秒）
-    private static final long NODE_TIMEOUT_SECONDS = 30;                   // 节点超时时间（秒）
+    private static final String MEMBERSHIP_CHANNEL = "sse:nodes:events";    // 成员事件频道（type|nodeId|host|port|lastHeartbeat）
+    private static final String EVENT_JOIN = "join";                        // 节点加入
+    private static final String EVENT_HEARTBEAT = "heartbeat";              // 节点心跳
+    private static final String EVENT_LEAVE = "leave";                      // 节点主动下线
+    private static final int CLEANUP_BATCH_SIZE = 500;                     // 故障清理每批处理的用户数
 
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private StringRedisTemplate stringRedisTemplate;   // 节点信息、会话记录和主题集合都使用紧凑的字符串编码
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;   // Redis 订阅容器
 
     @Value("${node.id}")
     private String currentNodeId;        // 当前节点 ID
@@ -36,17 +63,58 @@ public class NodeHealthMonitor {
     @Value("${server.address:localhost}")
     private String currentHost;          // 当前节点主机地址
 
+    @Value("${node.health.timeout:30000}")
+    private long nodeTimeout;            // 节点超时时间（毫秒），路由查询脚本使用同一值
+
+    private final Map<String, NodeInfo> members = new ConcurrentHashMap<>();          // 本地成员表 nodeId -> 最新节点信息
+    private final List<Runnable> membershipListeners = new CopyOnWriteArrayList<>();   // 成员变化监听器
+    private volatile boolean leaving;    // 已主动下线，不再发送心跳
+
     @PostConstruct
     public void init() {
+        // 先订阅成员事件再对账，对账期间到达的事件不会丢失
+        listenerContainer.addMessageListener((message, pattern) ->
+            onMembershipEvent(new String(message.getBody(), StandardCharsets.UTF_8)),
+            new ChannelTopic(MEMBERSHIP_CHANNEL));
         registerNode();    // 启动时注册节点
+        reconcile();
+    }
+
+    /**
+     * 下线时删除本节点信息并通知其他节点，其他节点立即停止向本节点路由
+     * 本节点的会话记录由其他节点对账时发现节点信息缺失后清理
+     */
+    @PreDestroy
+    public void leave() {
+        leaving = true;
+        try {
+            members.remove(currentNodeId);
+            stringRedisTemplate.delete(NODE_INFO_KEY_PREFIX + currentNodeId);
+            stringRedisTemplate.convertAndSend(MEMBERSHIP_CHANNEL, EVENT_LEAVE + "|" + currentNodeId);
+            log.info("Node left: {}", currentNodeId);
+        } catch (Exception e) {
+            log.error("Failed to announce node leave", e);
+        }
+    }
+
+    /**
+     * 注册成员变化监听器，节点加入、离开或超时时回调
+     * 回调在 Redis 订阅线程或调度线程上执行，应当快速返回
+     * @param listener 监听器
+     */
+    public void addMembershipListener(Runnable listener) {
+        membershipListeners.add(listener);
     }
 
     /**
      * 定时发送心跳到 Redis
-     * 每 10 秒执行一次
+     * 每 node.health.heartbeat-interval 执行一次
      */
-    @Scheduled(fixedRate = NODE_HEARTBEAT_INTERVAL_SECONDS * 1000)
+    @Scheduled(fixedRateString = "${node.health.heartbeat-interval:10000}")
     public void sendHeartbeat() {
+        if (leaving) {
+            return;
+        }
         try {
             NodeInfo nodeInfo = new NodeInfo(
                 currentNodeId,
@@ -56,17 +124,21 @@ public class NodeHealthMonitor {
                 true
             );
 
-            // 更新节点信息到 Redis，设置 30 秒过期时间
-            redisTemplate.opsForValue().set(
+            // 更新节点信息到 Redis，以节点超时时间作为过期时间
+            stringRedisTemplate.opsForValue().set(
                 NODE_INFO_KEY_PREFIX + currentNodeId,
-                nodeInfo,
-                NODE_TIMEOUT_SECONDS,
-                TimeUnit.SECONDS
+                nodeInfo.encode(),
+                nodeTimeout,
+                TimeUnit.MILLISECONDS
             );
 
             // 将当前节点添加到所有节点集合
-            redisTemplate.opsForSet().add(ALL_NODES_KEY, currentNodeId);
-            redisTemplate.expire(ALL_NODES_KEY, NODE_TIMEOUT_SECONDS * 2, TimeUnit.SECONDS);
+            stringRedisTemplate.opsForSet().add(ALL_NODES_KEY, currentNodeId);
+            stringRedisTemplate.expire(ALL_NODES_KEY, nodeTimeout * 2, TimeUnit.MILLISECONDS);
+
+            // 推送心跳，其他节点据此刷新成员表
+            updateMember(nodeInfo);
+            publishMembership(EVENT_HEARTBEAT, nodeInfo);
 
             log.debug("Heartbeat sent for node: {}", currentNodeId);
         } catch (Exception e) {
@@ -75,53 +147,89 @@ public class NodeHealthMonitor {
     }
 
     /**
-     * 定时检查所有节点健康状态
-     * 每 5 秒执行一次
+     * 定时检查本地成员表中的心跳超时
+     * 每 node.health.check-interval 执行一次，平时只读内存；
+     * 成员表中超时的节点先回查一次 Redis 中的节点信息，仍存在说明只是错过了心跳事件，合并后跳过，不清理其会话
      */
-    @Scheduled(fixedRate = 5000)
+    @Scheduled(fixedRateString = "${node.health.check-interval:5000}")
     public void checkNodeHealth() {
         try {
-            // 获取所有节点
-            Set<Object> allNodes = redisTemplate.opsForSet().members(ALL_NODES_KEY);
-            if (allNodes == null || allNodes.isEmpty()) {
-                return;
-            }
-
             List<String> unhealthyNodes = new ArrayList<>();
             long currentTime = System.currentTimeMillis();
 
-            // 检查每个节点的健康状态
-            for (Object nodeObj : allNodes) {
-                String nodeId = (String) nodeObj;
-                String key = NODE_INFO_KEY_PREFIX + nodeId;
-                NodeInfo nodeInfo = (NodeInfo) redisTemplate.opsForValue().get(key);
+            for (NodeInfo nodeInfo : members.values()) {
+                long timeSinceLastHeartbeat = currentTime - nodeInfo.getLastHeartbeat();
+                if (timeSinceLastHeartbeat <= nodeTimeout) {
+                    continue;
+                }
+                // 读取失败时抛出异常，本轮不标记任何节点
+                NodeInfo latest = readNodeInfo(nodeInfo.getNodeId());
+                if (latest != null) {
+                    log.info("Node {} missed heartbeat events ({}ms) but its info is still present, keeping it",
+                        nodeInfo.getNodeId(), timeSinceLastHeartbeat);
+                    updateMember(latest);
+                    continue;
+                }
+                if (members.remove(nodeInfo.getNodeId(), nodeInfo)) {
+                    unhealthyNodes.add(nodeInfo.getNodeId());
+                    log.warn("Node {} heartbeat timeout ({}ms), marking as unhealthy",
+                        nodeInfo.getNodeId(), timeSinceLastHeartbeat);
+                }
+            }
+
+            // 清理不健康节点的连接信息
+            if (!unhealthyNodes.isEmpty()) {
+                notifyMembershipChanged();
+                cleanupUnhealthyNodes(unhealthyNodes);
+            }
+        } catch (Exception e) {
+            log.error("Error checking node health", e);
+        }
+    }
 
-                if (nodeInfo == null) {
+    /**
+     * 定期与 Redis 对账成员表，兜底丢失的成员事件（如订阅连接断开期间）
+     * 节点信息已不存在的节点（超时过期或主动下线）从成员表移除并清理其连接信息
+     */
+    @Scheduled(fixedDelayString = "${node.health.reconcile-interval:30000}")
+    public void reconcile() {
+        try {
+            Map<String, NodeInfo> allNodes = loadNodeInfos();
+            List<String> unhealthyNodes = new ArrayList<>();
+            boolean changed = false;
+
+            for (Map.Entry<String, NodeInfo> entry : allNodes.entrySet()) {
+                if (entry.getValue() == null) {
                     // 节点信息不存在，标记为不健康
-                    unhealthyNodes.add(nodeId);
-                    log.warn("Node {} info not found, marking as unhealthy", nodeId);
+                    unhealthyNodes.add(entry.getKey());
+                    changed |= members.remove(entry.getKey()) != null;
+                    log.warn("Node {} info not found, marking as unhealthy", entry.getKey());
                 } else {
-                    // 检查心跳是否超时
-                    long timeSinceLastHeartbeat = currentTime - nodeInfo.getLastHeartbeat();
-                    if (timeSinceLastHeartbeat > NODE_TIMEOUT_SECONDS * 1000) {
-                        unhealthyNodes.add(nodeId);
-                        log.warn("Node {} heartbeat timeout ({}ms), marking as unhealthy", 
-                            nodeId, timeSinceLastHeartbeat);
-                    }
+                    changed |= mergeMember(entry.getValue());
+                }
+            }
+            // 已不在节点集合中的成员
+            for (String nodeId : members.keySet()) {
+                if (!allNodes.containsKey(nodeId) && !currentNodeId.equals(nodeId)) {
+                    changed |= members.remove(nodeId) != null;
                 }
             }
 
-            // 清理不健康节点的连接信息
+            if (changed) {
+                log.info("Membership reconciled: nodes={}", members.keySet());
+                notifyMembershipChanged();
+            }
             if (!unhealthyNodes.isEmpty()) {
                 cleanupUnhealthyNodes(unhealthyNodes);
             }
         } catch (Exception e) {
-            log.error("Error checking node health", e);
+            log.error("Error reconciling membership", e);
         }
     }
 
     /**
      * 清理不健康节点的连接信息
+     * 只遍历该节点的用户集合，开销与该节点上的用户数成正比
      * @param unhealthyNodes 不健康节点列表
      */
     private void cleanupUnhealthyNodes(List<String> unhealthyNodes) {
@@ -129,30 +237,32 @@ public class NodeHealthMonitor {
             try {
                 log.info("Cleaning up connections for unhealthy node: {}", nodeId);
 
-                // 查找所有属于该节点的连接
-                String pattern = NODE_KEY_PREFIX + "*";
-                Set<String> keys = redisTemplate.keys(pattern);
-                
-                if (keys != null) {
-                    List<String> keysToDelete = new ArrayList<>();
-                    for (String key : keys) {
-                        String targetNodeId = (String) redisTemplate.opsForValue().get(key);
-                        if (nodeId.equals(targetNodeId)) {
-                            keysToDelete.add(key);
+                // 使用 SSCAN 分批遍历该节点的用户集合
+                String membersKey = ConnectionRegistry.NODE_MEMBERS_KEY_PREFIX + nodeId;
+                ScanOptions options = ScanOptions.scanOptions().count(CLEANUP_BATCH_SIZE).build();
+                List<String> batch = new ArrayList<>(CLEANUP_BATCH_SIZE);
+                long deleted = 0;
+
+                try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(membersKey, options)) {
+                    while (cursor.hasNext()) {
+                        batch.add(cursor.next());
+                        if (batch.size() >= CLEANUP_BATCH_SIZE) {
+                            deleted += deleteConnectionRecords(nodeId, batch);
+                            batch.clear();
                         }
                     }
-
-                    // 批量删除连接记录
-                    if (!keysToDelete.isEmpty()) {
-                        redisTemplate.delete(keysToDelete);
-                        log.info("Deleted {} connection records for node {}", keysToDelete.size(), nodeId);
-                    }
                 }
+                if (!batch.isEmpty()) {
+                    deleted += deleteConnectionRecords(nodeId, batch);
+                }
+                log.info("Deleted {} session records for node {}", deleted, nodeId);
+
+                removeTopicSubscriptions(nodeId);
 
-                // 删除节点信息
+                // 删除节点信息、用户集合和主题集合
                 String nodeInfoKey = NODE_INFO_KEY_PREFIX + nodeId;
-                redisTemplate.delete(nodeInfoKey);
-                redisTemplate.opsForSet().remove(ALL_NODES_KEY, nodeId);
+                stringRedisTemplate.unlink(List.of(nodeInfoKey, membersKey, TopicRegistry.NODE_TOPICS_KEY_PREFIX + nodeId));
+                stringRedisTemplate.opsForSet().remove(ALL_NODES_KEY, nodeId);
 
                 log.info("Unhealthy node {} cleanup completed", nodeId);
             } catch (Exception e) {
@@ -162,61 +272,243 @@ public class NodeHealthMonitor {
     }
 
     /**
-     * 获取所有健康节点列表
-     * @return 健康节点列表
+     * 将故障节点从其订阅的所有主题中移除
+     * @param nodeId 故障节点 ID
      */
-    public List<NodeInfo> getHealthyNodes() {
-        try {
-            Set<Object> allNodes = redisTemplate.opsForSet().members(ALL_NODES_KEY);
-            if (allNodes == null || allNodes.isEmpty()) {
-                return new ArrayList<>();
+    private void removeTopicSubscriptions(String nodeId) {
+        Set<String> topics = stringRedisTemplate.opsForSet().members(TopicRegistry.NODE_TOPICS_KEY_PREFIX + nodeId);
+        if (topics == null || topics.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            public Object execute(RedisOperations operations) {
+                for (String topic : topics) {
+                    operations.opsForSet().remove(TopicRegistry.TOPIC_NODES_KEY_PREFIX + topic, nodeId);
+                }
+                return null;
             }
+        });
+        log.info("Removed node {} from {} topics", nodeId, topics.size());
+    }
 
-            List<NodeInfo> healthyNodes = new ArrayList<>();
-            long currentTime = System.currentTimeMillis();
-
-            // 筛选健康节点
-            for (Object nodeObj : allNodes) {
-                String nodeId = (String) nodeObj;
-                String key = NODE_INFO_KEY_PREFIX + nodeId;
-                NodeInfo nodeInfo = (NodeInfo) redisTemplate.opsForValue().get(key);
-
-                if (nodeInfo != null) {
-                    long timeSinceLastHeartbeat = currentTime - nodeInfo.getLastHeartbeat();
-                    if (timeSinceLastHeartbeat <= NODE_TIMEOUT_SECONDS * 1000) {
-                        healthyNodes.add(nodeInfo);
-                    }
+    /**
+     * 批量删除一批用户在故障节点上的会话记录
+     * 用户可能已重连到其他节点，只删除仍指向故障节点的会话
+     * 始终按 sessionId 逐个 HDEL，不根据先前读到的记录删除整个 Key：读取与删除之间用户可能已在健康节点上注册了新会话；
+     * sessionId 每次连接唯一，删除旧会话不会影响新注册，Hash 删空后 Redis 自动删除 Key
+     * @param nodeId 故障节点 ID
+     * @param userIds 用户 ID 列表
+     * @return 删除的会话数
+     */
+    private int deleteConnectionRecords(String nodeId, List<String> userIds) {
+        // 一次 pipeline 读取这批用户的会话记录
+        List<Object> sessionNodes = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            public Object execute(RedisOperations operations) {
+                for (String userId : userIds) {
+                    operations.opsForHash().entries(ConnectionRegistry.CONNECTION_KEY_PREFIX + userId);
+                }
+                return null;
+            }
+        });
+
+        Map<String, Object[]> fieldsToDelete = new HashMap<>();
+        int deleted = 0;
+        for (int i = 0; i < userIds.size(); i++) {
+            String userId = userIds.get(i);
+            Map<?, ?> sessions = (Map<?, ?>) sessionNodes.get(i);
+            List<Object> deadSessions = new ArrayList<>();
+            for (Map.Entry<?, ?> entry : sessions.entrySet()) {
+                if (nodeId.equals(ConnectionInfo.nodeIdOf((String) entry.getValue()))) {
+                    deadSessions.add(entry.getKey());
                 }
             }
+            if (deadSessions.isEmpty()) {
+                continue;
+            }
+            deleted += deadSessions.size();
+            fieldsToDelete.put(userId, deadSessions.toArray());
+        }
 
-            return healthyNodes;
-        } catch (Exception e) {
-            log.error("Error getting healthy nodes", e);
-            return new ArrayList<>();
+        if (!fieldsToDelete.isEmpty()) {
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings({"rawtypes", "unchecked"})
+                public Object execute(RedisOperations operations) {
+                    fieldsToDelete.forEach((userId, fields) ->
+                        operations.opsForHash().delete(ConnectionRegistry.CONNECTION_KEY_PREFIX + userId, fields));
+                    return null;
+                }
+            });
+        }
+        return deleted;
+    }
+
+    /**
+     * 获取所有健康节点列表
+     * @return 健康节点列表
+     */
+    public List<NodeInfo> getHealthyNodes() {
+        List<NodeInfo> healthyNodes = new ArrayList<>();
+        long currentTime = System.currentTimeMillis();
+
+        // 筛选本地成员表中心跳未超时的节点
+        for (NodeInfo nodeInfo : members.values()) {
+            if (currentTime - nodeInfo.getLastHeartbeat() <= nodeTimeout) {
+                healthyNodes.add(nodeInfo);
+            }
         }
+        return healthyNodes;
     }
 
     /**
      * 检查指定节点是否健康
+     * 读本地成员表；成员表中没有该节点时（如刚启动的节点的加入事件尚未到达）回查一次 Redis，
+     * 避免把健康节点上的会话误判为失效而删除
      * @param nodeId 节点 ID
      * @return 是否健康
      */
     public boolean isNodeHealthy(String nodeId) {
-        try {
-            String key = NODE_INFO_KEY_PREFIX + nodeId;
-            NodeInfo nodeInfo = (NodeInfo) redisTemplate.opsForValue().get(key);
-
+        NodeInfo nodeInfo = members.get(nodeId);
+        if (nodeInfo == null) {
+            nodeInfo = loadNodeInfo(nodeId);
             if (nodeInfo == null) {
                 return false;
             }
+        }
+
+        // 检查心跳是否超时
+        long timeSinceLastHeartbeat = System.currentTimeMillis() - nodeInfo.getLastHeartbeat();
+        return timeSinceLastHeartbeat <= nodeTimeout;
+    }
+
+    /**
+     * 获取节点超时时间
+     * @return 超时时间（毫秒）
+     */
+    public long getNodeTimeout() {
+        return nodeTimeout;
+    }
+
+    /**
+     * 处理成员事件
+     * @param event 事件内容：join|nodeId|host|port|lastHeartbeat、heartbeat|...、leave|nodeId
+     */
+    private void onMembershipEvent(String event) {
+        String[] parts = event.split("\\|", 3);
+        if (parts.length < 2) {
+            log.warn("Ignoring malformed membership event: {}", event);
+            return;
+        }
+        String type = parts[0];
+        String nodeId = parts[1];
+        if (EVENT_LEAVE.equals(type)) {
+            if (members.remove(nodeId) != null) {
+                log.info("Node {} left", nodeId);
+                notifyMembershipChanged();
+            }
+            return;
+        }
+        NodeInfo nodeInfo = parts.length == 3 ? NodeInfo.decode(nodeId, parts[2]) : null;
+        if (nodeInfo == null) {
+            log.warn("Ignoring malformed membership event: {}", event);
+            return;
+        }
+        if (EVENT_JOIN.equals(type)) {
+            log.info("Node {} joined at {}:{}", nodeId, nodeInfo.getHost(), nodeInfo.getPort());
+        }
+        updateMember(nodeInfo);
+    }
+
+    /**
+     * 更新成员表，新节点加入或地址变化时通知监听器
+     * @param nodeInfo 节点信息
+     */
+    private void updateMember(NodeInfo nodeInfo) {
+        if (mergeMember(nodeInfo)) {
+            notifyMembershipChanged();
+        }
+    }
+
+    /**
+     * 合并节点信息，只保留心跳时间更新的一条，乱序到达的旧心跳不会覆盖新心跳
+     * @param nodeInfo 节点信息
+     * @return 是否为新加入的节点或地址变化
+     */
+    private boolean mergeMember(NodeInfo nodeInfo) {
+        NodeInfo previous = members.get(nodeInfo.getNodeId());
+        members.merge(nodeInfo.getNodeId(), nodeInfo,
+            (old, latest) -> latest.getLastHeartbeat() >= old.getLastHeartbeat() ? latest : old);
+        return previous == null
+            || !previous.getHost().equals(nodeInfo.getHost())
+            || previous.getPort() != nodeInfo.getPort();
+    }
+
+    private void notifyMembershipChanged() {
+        for (Runnable listener : membershipListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.error("Membership listener failed", e);
+            }
+        }
+    }
 
-            // 检查心跳是否超时
-            long timeSinceLastHeartbeat = System.currentTimeMillis() - nodeInfo.getLastHeartbeat();
-            return timeSinceLastHeartbeat <= NODE_TIMEOUT_SECONDS * 1000;
+    private void publishMembership(String type, NodeInfo nodeInfo) {
+        stringRedisTemplate.convertAndSend(MEMBERSHIP_CHANNEL,
+            type + "|" + nodeInfo.getNodeId() + "|" + nodeInfo.encode());
+    }
+
+    /**
+     * 从 Redis 读取单个节点信息，存在时合并到成员表
+     * @param nodeId 节点 ID
+     * @return 节点信息，不存在或读取失败返回 null
+     */
+    private NodeInfo loadNodeInfo(String nodeId) {
+        try {
+            NodeInfo nodeInfo = readNodeInfo(nodeId);
+            if (nodeInfo != null) {
+                updateMember(nodeInfo);
+            }
+            return nodeInfo;
         } catch (Exception e) {
             log.error("Error checking node health for {}", nodeId, e);
-            return false;
+            return null;
+        }
+    }
+
+    /**
+     * 从 Redis 读取单个节点信息
+     * @param nodeId 节点 ID
+     * @return 节点信息，不存在（已过期或主动下线）返回 null
+     */
+    private NodeInfo readNodeInfo(String nodeId) {
+        return NodeInfo.decode(nodeId, stringRedisTemplate.opsForValue().get(NODE_INFO_KEY_PREFIX + nodeId));
+    }
+
+    /**
+     * 读取所有节点的信息，节点集合之外只需一次 MGET
+     * @return nodeId -> 节点信息，信息已过期的节点对应 null
+     */
+    private Map<String, NodeInfo> loadNodeInfos() {
+        Set<String> nodeIds = stringRedisTemplate.opsForSet().members(ALL_NODES_KEY);
+        if (nodeIds == null || nodeIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<String> ids = new ArrayList<>(nodeIds);
+        List<String> keys = new ArrayList<>(ids.size());
+        for (String nodeId : ids) {
+            keys.add(NODE_INFO_KEY_PREFIX + nodeId);
         }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<String, NodeInfo> nodeInfos = new LinkedHashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            nodeInfos.put(ids.get(i), NodeInfo.decode(ids.get(i), values != null ? values.get(i) : null));
+        }
+        return nodeInfos;
     }
 
     /**
@@ -233,16 +525,20 @@ public class NodeHealthMonitor {
             );
 
             // 保存节点信息到 Redis
-            redisTemplate.opsForValue().set(
+            stringRedisTemplate.opsForValue().set(
                 NODE_INFO_KEY_PREFIX + currentNodeId,
-                nodeInfo,
-                NODE_TIMEOUT_SECONDS,
-                TimeUnit.SECONDS
+                nodeInfo.encode(),
+                nodeTimeout,
+                TimeUnit.MILLISECONDS
             );
 
             // 添加到节点集合
-            redisTemplate.opsForSet().add(ALL_NODES_KEY, currentNodeId);
-            redisTemplate.expire(ALL_NODES_KEY, NODE_TIMEOUT_SECONDS * 2, TimeUnit.SECONDS);
+            stringRedisTemplate.opsForSet().add(ALL_NODES_KEY, currentNodeId);
+            stringRedisTemplate.expire(ALL_NODES_KEY, nodeTimeout * 2, TimeUnit.MILLISECONDS);
+
+            // 通知其他节点加入
+            updateMember(nodeInfo);
+            publishMembership(EVENT_JOIN, nodeInfo);
 
             log.info("Node registered: {}", currentNodeId);
         } catch (Exception e) {
@@ -0,0 +1,131 @@
+package com.example.sse.manager;
+
+import com.example.sse.health.NodeDrainer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 建立连接的准入控制
+ * 在 /connect 做任何 Redis 操作之前判断：节点排空中、连接数达到上限或令牌桶没有令牌时直接拒绝，
+ * 网络分区恢复后大量客户端同时重连时，节点只按设定速率接受连接，其余请求快速返回 503 并带随机的 Retry-After
+ */
+@Slf4j
+@Service
+public class ConnectAdmission {
+
+    /**
+     * 准入结果
+     */
+    public enum Decision {
+        ACCEPTED,       // 接受
+        DRAINING,       // 节点排空中
+        AT_CAPACITY,    // 连接数达到上限
+        RATE_LIMITED    // 超过建立连接速率
+    }
+
+    @Autowired
+    private SseConnectionManager connectionManager;   // SSE 连接管理器
+
+    @Autowired
+    private NodeDrainer nodeDrainer;                  // 节点排空
+
+    @Autowired
+    private MeterRegistry meterRegistry;              // 指标注册表
+
+    @Value("${sse.admission.rate:500}")
+    private double rate;                 // 每秒补充的令牌数，即每秒允许建立的连接数，0 表示不限速
+
+    @Value("${sse.admission.burst:1000}")
+    private double burst;                // 令牌桶容量，允许的瞬时突发连接数
+
+    @Value("${sse.admission.max-connections:50000}")
+    private int maxConnections;          // 单节点最大连接数，0 表示不限
+
+    @Value("${sse.admission.retry-min:1000}")
+    private long retryMinMillis;         // 拒绝时建议的重连延迟下限（毫秒）
+
+    @Value("${sse.admission.retry-max:5000}")
+    private long retryMaxMillis;         // 拒绝时建议的重连延迟上限（毫秒），在区间内随机，分散下一轮重连
+
+    private final Map<Decision, Counter> decisionCounters = new EnumMap<>(Decision.class);   // 各准入结果计数
+    private double tokens;               // 当前令牌数
+    private long lastRefillNanos;        // 上次补充令牌的时间
+
+    @PostConstruct
+    public void init() {
+        tokens = burst;
+        lastRefillNanos = System.nanoTime();
+        for (Decision decision : Decision.values()) {
+            decisionCounters.put(decision, Counter.builder("sse.connect.admission")
+                .description("Connect requests by admission decision")
+                .tag("decision", decision.name().toLowerCase(Locale.ROOT))
+                .register(meterRegistry));
+        }
+    }
+
+    /**
+     * 判断是否接受一个新连接，接受时消耗一个令牌
+     * @return 准入结果
+     */
+    public Decision tryAdmit() {
+        Decision decision;
+        if (nodeDrainer.isDraining()) {
+            decision = Decision.DRAINING;
+        } else if (maxConnections > 0 && connectionManager.getConnectionCount() >= maxConnections) {
+            decision = Decision.AT_CAPACITY;
+        } else if (!tryAcquire()) {
+            decision = Decision.RATE_LIMITED;
+        } else {
+            decision = Decision.ACCEPTED;
+        }
+        decisionCounters.get(decision).increment();
+        if (decision != Decision.ACCEPTED) {
+            log.debug("Connect rejected: {}", decision);
+        }
+        return decision;
+    }
+
+    /**
+     * 计算拒绝时返回的 Retry-After（秒，向上取整）
+     * 排空中使用排空的重连延迟区间，其他情况使用准入的重连延迟区间
+     * @param decision 准入结果
+     * @return 秒数
+     */
+    public long retryAfterSeconds(Decision decision) {
+        long millis = decision == Decision.DRAINING
+            ? nodeDrainer.nextRetryMillis()
+            : retryMaxMillis > retryMinMillis
+                ? ThreadLocalRandom.current().nextLong(retryMinMillis, retryMaxMillis + 1)
+                : retryMinMillis;
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(millis + 999));
+    }
+
+    /**
+     * 令牌桶取一个令牌，按距上次补充的时间补充令牌，不超过容量
+     * @return 是否取到
+     */
+    private synchronized boolean tryAcquire() {
+        if (rate <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
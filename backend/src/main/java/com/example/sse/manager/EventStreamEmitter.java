@@ -0,0 +1,34 @@
+package com.example.sse.manager;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+/**
+ * 写出预编码 SSE 帧的发射器
+ * 与 SseEmitter 一样声明 text/event-stream，但不再按事件格式包装：帧已由 SseFrame 编码，原样写出字节
+ * 协商了压缩时在响应头中声明 Content-Encoding，写出的字节由 ServletSseConnection 压缩，容器不会再次压缩
+ */
+class EventStreamEmitter extends ResponseBodyEmitter {
+
+    private final SseCompressor.Encoding encoding;   // 压缩编码，为空时不压缩
+
+    EventStreamEmitter(long timeout, SseCompressor.Encoding encoding) {
+        super(timeout);
+        this.encoding = encoding;
+    }
+
+    @Override
+    protected void extendResponse(ServerHttpResponse outputMessage) {
+        super.extendResponse(outputMessage);
+        HttpHeaders headers = outputMessage.getHeaders();
+        if (headers.getContentType() == null) {
+            headers.setContentType(MediaType.TEXT_EVENT_STREAM);
+        }
+        if (encoding != null) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, encoding.getToken());
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+    }
+}
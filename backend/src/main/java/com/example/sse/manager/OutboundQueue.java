@@ -0,0 +1,124 @@
+package com.example.sse.manager;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * 会话的有界发送队列
+ * 调用线程只负责入队，由写出线程池排空；队列满时按溢出策略处理，慢客户端不会阻塞消息总线消费者
+ */
+public class OutboundQueue {
+
+    /**
+     * 队列满时的溢出策略
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST,    // 丢弃最早的帧
+        CONFLATE,       // 合并：可合并的状态事件丢弃排队中同名的旧帧，只保留最新值；其他帧无法合并时断开慢客户端
+        DISCONNECT      // 断开慢客户端
+    }
+
+    /**
+     * 入队结果
+     */
+    public enum OfferResult {
+        ACCEPTED,       // 已入队
+        REPLACED,       // 已入队，并丢弃了一帧旧数据
+        OVERFLOW        // 队列已满且不能丢弃帧，需断开
+    }
+
+    private static final String STREAM_EVENT = "stream";   // 流式输出的增量片段，合并会丢失文本
+
+    private final ArrayDeque<SseFrame> frames = new ArrayDeque<>();
+    private final int capacity;               // 队列容量
+    private final OverflowPolicy policy;      // 溢出策略
+    private final Set<String> conflateEvents; // 允许合并的事件名称，只有显式列出的状态事件才会被新值替换
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, Collections.emptySet());
+    }
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, Set<String> conflateEvents) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.conflateEvents = conflateEvents != null ? conflateEvents : Collections.emptySet();
+    }
+
+    /**
+     * 帧入队
+     * @param frame 预编码的 SSE 帧
+     * @return 入队结果
+     */
+    public synchronized OfferResult offer(SseFrame frame) {
+        if (frames.size() < capacity) {
+            frames.addLast(frame);
+            return OfferResult.ACCEPTED;
+        }
+        switch (policy) {
+            case DISCONNECT:
+                return OfferResult.OVERFLOW;
+            case CONFLATE:
+                if (!isConflatable(frame) || !removeLastSameEvent(frame.getEventName())) {
+                    return OfferResult.OVERFLOW;   // 丢弃其他帧会破坏可回放事件或流式文本，断开后由客户端重连回放
+                }
+                break;
+            default:
+                frames.pollFirst();
+                break;
+        }
+        frames.addLast(frame);
+        return OfferResult.REPLACED;
+    }
+
+    /**
+     * 帧是否可以被同名新值替换
+     * 只合并显式列出的命名事件；带事件 ID 的帧（可回放）、未命名事件和 stream 增量片段都不合并
+     * @param frame 预编码的 SSE 帧
+     * @return 是否可合并
+     */
+    private boolean isConflatable(SseFrame frame) {
+        String eventName = frame.getEventName();
+        return eventName != null && frame.getId() == null && !STREAM_EVENT.equals(eventName)
+            && conflateEvents.contains(eventName);
+    }
+
+    private boolean removeLastSameEvent(String eventName) {
+        Iterator<SseFrame> iterator = frames.descendingIterator();
+        while (iterator.hasNext()) {
+            SseFrame queued = iterator.next();
+            if (eventName.equals(queued.getEventName()) && isConflatable(queued)) {
+                iterator.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 取出队首帧
+     * @return 队首帧，队列为空时返回 null
+     */
+    public synchronized SseFrame poll() {
+        return frames.pollFirst();
+    }
+
+    /**
+     * 清空队列
+     * @return 被丢弃的帧数
+     */
+    public synchronized int clear() {
+        int size = frames.size();
+        frames.clear();
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    public synchronized int size() {
+        return frames.size();
+    }
+}
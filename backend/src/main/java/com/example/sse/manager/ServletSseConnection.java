@@ -0,0 +1,61 @@
+package com.example.sse.manager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+
+/**
+ * Servlet 传输的 SSE 会话，基于 ResponseBodyEmitter，预编码的帧以字节原样写出
+ * 协商了压缩时整个响应体是一个压缩流：队列中还有帧时只压缩不 flush，一批帧写完后 sync-flush 一次
+ */
+@Slf4j
+public class ServletSseConnection extends SseConnection {
+
+    private final ResponseBodyEmitter emitter;   // 响应发射器
+    private final SseCompressor compressor;       // 流式压缩器，为空时不压缩
+
+    public ServletSseConnection(String userId, String sessionId, ResponseBodyEmitter emitter, OutboundQueue outbound) {
+        this(userId, sessionId, emitter, outbound, null);
+    }
+
+    public ServletSseConnection(String userId, String sessionId, ResponseBodyEmitter emitter, OutboundQueue outbound,
+                                SseCompressor compressor) {
+        super(userId, sessionId, outbound);
+        this.emitter = emitter;
+        this.compressor = compressor;
+    }
+
+    @Override
+    public void send(SseFrame frame) throws IOException {
+        if (compressor == null) {
+            emitter.send(frame.getBytes(), MediaType.TEXT_EVENT_STREAM);
+            return;
+        }
+        // 压缩与写出在同一把锁内，保证压缩流的字节按顺序写出，关闭时流结尾不会插到数据块之前
+        synchronized (compressor) {
+            byte[] chunk = compressor.compress(frame.getBytes(), getOutbound().isEmpty());
+            if (chunk.length > 0) {
+                emitter.send(chunk, MediaType.TEXT_EVENT_STREAM);
+            }
+        }
+    }
+
+    @Override
+    public void complete() {
+        if (compressor != null) {
+            synchronized (compressor) {
+                byte[] trailer = compressor.finish();
+                try {
+                    if (trailer.length > 0) {
+                        emitter.send(trailer, MediaType.TEXT_EVENT_STREAM);   // 正常结束压缩流，客户端可以校验完整性
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    log.debug("Skipped compressed stream trailer for sessionId={}: {}", getSessionId(), e.toString());
+                }
+            }
+        }
+        emitter.complete();
+    }
+}
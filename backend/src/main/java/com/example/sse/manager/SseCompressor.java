@@ -0,0 +1,250 @@
+package com.example.sse.manager;
+
+import io.micrometer.core.instrument.Timer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 单个会话的流式压缩器
+ * 整个连接是一个 gzip / deflate 流，每批帧写完后 sync-flush，客户端收到即可解压出完整事件
+ * 压缩字典跨帧保留，重复的 JSON 字段名越来越便宜；小于阈值的帧（保活 ping、短事件）用最快级别压缩，
+ * 不用 stored 块原样写出，因为 zlib 从级别 0 切回时会清空匹配历史，之后的大帧压缩率明显下降
+ * 每个压缩器持有一个 Deflater，约占 256KB 堆外内存，连接关闭时必须调用 finish() 释放
+ */
+public final class SseCompressor {
+
+    private static final int BUFFER_SIZE = 512;   // 压缩输出缓冲区大小
+
+    /**
+     * 压缩编码，对应 Content-Encoding
+     */
+    public enum Encoding {
+        GZIP("gzip"),         // gzip 格式（RFC 1952）
+        DEFLATE("deflate");   // zlib 格式（RFC 1950），HTTP 中的 deflate
+
+        private final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        /**
+         * 按 Accept-Encoding 协商编码，优先 gzip，q=0 表示不接受
+         * 通配符 * 不视为接受，只压缩客户端明确声明支持的编码
+         * @param acceptEncoding Accept-Encoding 请求头，可为空
+         * @return 编码，不支持压缩时返回 null
+         */
+        public static Encoding negotiate(String acceptEncoding) {
+            if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+                return null;
+            }
+            float gzip = 0;
+            float deflate = 0;
+            for (String token : acceptEncoding.split(",")) {
+                String[] parts = token.split(";");
+                String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+                float q = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            q = Float.parseFloat(param.substring(2));
+                        } catch (NumberFormatException e) {
+                            q = 0;
+                        }
+                    }
+                }
+                if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                    gzip = Math.max(gzip, q);
+                } else if (coding.equals("deflate")) {
+                    deflate = Math.max(deflate, q);
+                }
+            }
+            if (gzip > 0 && gzip >= deflate) {
+                return GZIP;
+            }
+            return deflate > 0 ? DEFLATE : null;
+        }
+    }
+
+    /**
+     * 所有压缩器共用的统计，由连接管理器注册为指标
+     */
+    public static final class Stats {
+
+        private final AtomicLong bytesIn = new AtomicLong();          // 压缩前字节数
+        private final AtomicLong bytesOut = new AtomicLong();         // 压缩后字节数
+        private final AtomicInteger connections = new AtomicInteger();   // 当前压缩中的连接数
+        private final Timer timer;                                    // 每次压缩耗时，总时间即压缩消耗的 CPU
+
+        public Stats(Timer timer) {
+            this.timer = timer;
+        }
+
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+
+        public int getConnections() {
+            return connections.get();
+        }
+
+        /**
+         * 压缩后与压缩前的字节数之比，越小越省带宽
+         * @return 比值，尚未压缩时为 1
+         */
+        public double getRatio() {
+            long in = bytesIn.get();
+            return in == 0 ? 1 : (double) bytesOut.get() / in;
+        }
+
+        /**
+         * 占用一个压缩名额
+         * @param max 最大压缩连接数，0 表示不限
+         * @return 是否占用成功，超过上限的连接不压缩
+         */
+        boolean tryAcquire(int max) {
+            while (true) {
+                int current = connections.get();
+                if (max > 0 && current >= max) {
+                    return false;
+                }
+                if (connections.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private final Encoding encoding;             // 压缩编码
+    private final int level;                     // 压缩级别
+    private final int minSize;                   // 小于该字节数的帧使用最快级别
+    private final Stats stats;                   // 共用统计
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE);   // 压缩输出，每次取走后清空
+    private final Deflater deflater;
+    private final DeflaterOutputStream stream;
+    private int currentLevel;                    // Deflater 当前级别，只在变化时切换
+    private boolean finished;                    // 是否已结束
+
+    /**
+     * 创建压缩器，调用方需已通过 Stats.tryAcquire 占用名额，finish() 时归还
+     * @param encoding 压缩编码
+     * @param level 压缩级别 1-9
+     * @param minSize 小于该字节数的帧使用最快级别
+     * @param stats 共用统计
+     */
+    SseCompressor(Encoding encoding, int level, int minSize, Stats stats) {
+        this.encoding = encoding;
+        this.level = level;
+        this.minSize = minSize;
+        this.stats = stats;
+        this.currentLevel = level;
+        if (encoding == Encoding.GZIP) {
+            GzipStream gzip;
+            try {
+                gzip = new GzipStream(buffer, level);   // 构造时写出 gzip 头
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);      // 写入内存缓冲区不会失败
+            }
+            this.deflater = gzip.deflater();
+            this.stream = gzip;
+        } else {
+            this.deflater = new Deflater(level);
+            this.stream = new DeflaterOutputStream(buffer, deflater, BUFFER_SIZE, true);
+        }
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * 压缩一帧
+     * 不 flush 时输出可能为空，已写入的内容留在压缩器中，随后续帧一起 sync-flush
+     * @param frame 帧内容
+     * @param flush 是否 sync-flush，一个微批次的最后一帧需要 flush
+     * @return 压缩后的字节，可能为空
+     * @throws IOException 压缩器已结束
+     */
+    synchronized byte[] compress(byte[] frame, boolean flush) throws IOException {
+        if (finished) {
+            throw new IOException("Compressor already finished");
+        }
+        long start = System.nanoTime();
+        int frameLevel = frame.length < minSize ? Deflater.BEST_SPEED : level;
+        if (frameLevel != currentLevel) {
+            deflater.setLevel(frameLevel);   // 未 flush 的输入在下次 deflate 时按原级别压缩，匹配历史保留
+            currentLevel = frameLevel;
+        }
+        stream.write(frame);
+        if (flush) {
+            stream.flush();   // SYNC_FLUSH
+        }
+        byte[] out = drainBuffer();
+        stats.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        stats.bytesIn.addAndGet(frame.length);
+        stats.bytesOut.addAndGet(out.length);
+        return out;
+    }
+
+    /**
+     * 结束压缩流并释放 Deflater，可重复调用
+     * @return 流结尾（gzip 为 CRC 与长度），应在关闭连接前写出；已结束时返回空数组
+     */
+    synchronized byte[] finish() {
+        if (finished) {
+            return new byte[0];
+        }
+        finished = true;
+        stats.connections.decrementAndGet();
+        try {
+            stream.finish();
+            byte[] out = drainBuffer();
+            stats.bytesOut.addAndGet(out.length);
+            return out;
+        } catch (IOException e) {
+            return new byte[0];   // 写入内存缓冲区不会失败
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private byte[] drainBuffer() {
+        byte[] out = buffer.toByteArray();
+        buffer.reset();
+        return out;
+    }
+
+    /**
+     * 可以访问内部 Deflater 的 gzip 流，用于按帧切换压缩级别
+     */
+    private static final class GzipStream extends GZIPOutputStream {
+
+        GzipStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE, true);
+            def.setLevel(level);
+        }
+
+        Deflater deflater() {
+            return def;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.sse.manager;
+
+import com.example.sse.registry.ReplayLog;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 本地 SSE 会话
+ * 与传输方式无关，Servlet（ResponseBodyEmitter）和 Reactive（Flux）各有实现
+ * 发送方只把帧放入有界发送队列，同一时刻最多一个写出线程排空该队列，保证帧按顺序写出；
+ * 传输层自己缓冲并异步写出的实现（isDirect）由发送方直接调用 send
+ */
+@Getter
+public abstract class SseConnection {
+
+    private final String userId;        // 用户 ID
+    private final String sessionId;     // 会话 ID
+    private final Set<String> topics = ConcurrentHashMap.newKeySet();   // 已订阅的主题
+    private final OutboundQueue outbound;                               // 有界发送队列
+    @Getter(AccessLevel.NONE)
+    private final AtomicBoolean draining = new AtomicBoolean();         // 是否已有写出任务在排空队列
+    @Getter(AccessLevel.NONE)
+    private final AtomicBoolean evicted = new AtomicBoolean();          // 是否已因发送队列溢出被断开
+    private volatile boolean closing;                                   // 写完队列中的帧后关闭，节点排空时使用
+    private volatile long lastWriteNanos = System.nanoTime();           // 最近一次写出的时间，保活只 ping 空闲连接
+    @Getter(AccessLevel.NONE)
+    private List<SseFrame> heldFrames;    // 回放读取期间到达的用户事件，回放入队后再放行；为空表示不在回放中，由用户锁保护
+    @Getter(AccessLevel.NONE)
+    private String replayedUpTo;          // 已回放的最后一个事件 ID，ID 不大于它的用户事件已写给客户端，由用户锁保护
+
+    protected SseConnection(String userId, String sessionId, OutboundQueue outbound) {
+        this.userId = userId;
+        this.sessionId = sessionId;
+        this.outbound = outbound;
+    }
+
+    /**
+     * 尝试占有写出权
+     * @return 是否占有成功，成功的调用方负责提交排空任务
+     */
+    boolean tryStartDrain() {
+        return draining.compareAndSet(false, true);
+    }
+
+    /**
+     * 释放写出权
+     */
+    void finishDrain() {
+        draining.set(false);
+    }
+
+    /**
+     * 记录写出时间，由写出线程在每批写出后调用
+     * @param nanos System.nanoTime()
+     */
+    void markWritten(long nanos) {
+        lastWriteNanos = nanos;
+    }
+
+    /**
+     * 标记为待关闭，发送队列写空后由写出任务关闭连接
+     */
+    void markClosing() {
+        closing = true;
+    }
+
+    /**
+     * 因发送队列溢出断开：标记为待关闭，由调用方安排清理
+     * @return 是否为第一次标记，只有第一次需要安排清理
+     */
+    boolean evict() {
+        closing = true;
+        return evicted.compareAndSet(false, true);
+    }
+
+    /**
+     * 开始回放：之后到达的用户事件先暂存，调用方持有用户锁
+     */
+    void holdFrames() {
+        heldFrames = new ArrayList<>();
+    }
+
+    /**
+     * 回放中时暂存用户事件，调用方持有用户锁
+     * @param frame 预编码的 SSE 帧
+     * @return 是否已暂存
+     */
+    boolean holdIfReplaying(SseFrame frame) {
+        if (heldFrames == null) {
+            return false;
+        }
+        heldFrames.add(frame);
+        return true;
+    }
+
+    /**
+     * 结束回放，调用方持有用户锁
+     * @param lastReplayedId 回放的最后一个事件 ID，没有回放任何事件时为空
+     * @return 回放期间暂存的用户事件，按到达顺序
+     */
+    List<SseFrame> releaseFrames(String lastReplayedId) {
+        List<SseFrame> frames = heldFrames;
+        heldFrames = null;
+        if (lastReplayedId != null) {
+            replayedUpTo = lastReplayedId;
+        }
+        return frames != null ? frames : List.of();
+    }
+
+    /**
+     * 用户事件是否已由回放写给客户端，调用方持有用户锁
+     * @param eventId 事件 ID，可为空
+     * @return 是否已回放
+     */
+    boolean isReplayed(String eventId) {
+        return eventId != null && replayedUpTo != null && ReplayLog.compareIds(eventId, replayedUpTo) <= 0;
+    }
+
+    /**
+     * 是否由传输层自己缓冲并异步写出
+     * 为 true 时发送方在用户锁内直接调用 send，send 不能阻塞，缓冲满时抛出 IOException
+     * @return 是否直接发送
+     */
+    protected boolean isDirect() {
+        return false;
+    }
+
+    /**
+     * 发送一帧到客户端，由写出线程调用；isDirect 的实现由发送方直接调用
+     * @param frame 预编码的 SSE 帧
+     * @throws IOException 连接已断开或写入失败
+     */
+    public abstract void send(SseFrame frame) throws IOException;
+
+    /**
+     * 结束连接
+     */
+    public abstract void complete();
+}
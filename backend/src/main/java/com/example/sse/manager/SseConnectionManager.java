@@ -1,38 +1,181 @@
 package com.example.sse.manager;
 
 import com.example.sse.registry.ConnectionRegistry;
+import com.example.sse.registry.ReplayLog;
+import com.example.sse.registry.TopicRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 @Service
 public class SseConnectionManager {
 
-    private final Map<String, SseEmitter> connections = new ConcurrentHashMap<>();      // sessionId -> SseEmitter 映射
-    private final Map<String, String> userSessionMap = new ConcurrentHashMap<>();  // userId -> sessionId 映射
-    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor();  // 心跳执行器
+    static final Duration CONNECTION_TIMEOUT = Duration.ofMinutes(30);   // 连接超时时间
+    private static final int DRAIN_BATCH_SIZE = 64;     // 写出任务每次最多写出的帧数，之后让出线程给其他会话
+    private static final int USER_LOCK_STRIPES = 64;    // 用户锁分段数
+    private static final long REAP_INTERVAL_MILLIS = 1000;   // 关闭保活时回收死连接的间隔
+    private static final int FANOUT_CHUNK_SIZE = 1024;  // 全量广播时每个并行分片至少包含的会话数，会话较少时在调用线程上直接入队
+    private static final SseFrame KEEPALIVE_FRAME = SseFrame.ofComment("keepalive");   // 保活 ping，只编码一次，所有连接共用
+
+    private final Map<String, SseConnection> connections = new ConcurrentHashMap<>();   // sessionId -> 会话 映射
+    private final Map<String, Set<String>> userSessions = new ConcurrentHashMap<>();  // userId -> sessionIds 映射，同一用户可有多个会话
+    private final Map<String, Set<String>> topicSessions = new ConcurrentHashMap<>(); // topic -> sessionIds 本地订阅索引
+    private final Queue<Map.Entry<String, String>> reapedSessions = new ConcurrentLinkedQueue<>();   // 写出失败、待批量注销的 userId -> sessionId
+    private final Deque<SseConnection> keepaliveRound = new ArrayDeque<>();   // 本轮保活尚未检查的连接，只由保活线程访问
+    private final Object[] userLocks = new Object[USER_LOCK_STRIPES];   // 用户锁：保证同一用户的事件入队与回放放行的顺序一致
+    private final AtomicLong queuedFrames = new AtomicLong();          // 所有发送队列中待写出的帧数
+    private final AtomicLong droppedFrames = new AtomicLong();         // 因队列溢出或连接关闭丢弃的帧数
+    private final AtomicLong slowConsumerDisconnects = new AtomicLong();   // 因队列溢出断开的连接数
+    private final AtomicLong keepalivePings = new AtomicLong();        // 已发送的保活 ping 数
+    private final AtomicLong reapedConnections = new AtomicLong();     // 写出失败被回收的死连接数
+
+    private ExecutorService writerExecutor;         // 写出线程池，排空各会话的发送队列
+    private ScheduledExecutorService keepaliveExecutor;   // 保活线程：分时间片 ping 空闲连接，批量回收死连接
+    private int keepaliveSliceSize;                 // 本轮每个时间片检查的连接数
+    private Timer sendTimer;                        // 单帧写出耗时
+    private SseCompressor.Stats compressionStats;   // 所有压缩会话共用的压缩统计
+
+    private volatile long lastBroadcastMillis;      // 最近一次全量广播耗时
+    private volatile int lastBroadcastSessions;     // 最近一次全量广播的会话数
+    private volatile boolean migrating;             // 节点排空中：会话关闭时不再逐个注销，由排空结束时批量注销
+
+    @Value("${sse.outbound.queue-capacity:256}")
+    private int queueCapacity;                      // 每个会话的发送队列容量
+
+    @Value("${sse.outbound.overflow-policy:drop-oldest}")
+    private OutboundQueue.OverflowPolicy overflowPolicy;   // 队列满时的溢出策略
+
+    @Value("${sse.outbound.conflate-events:}")
+    private Set<String> conflateEvents;             // conflate 策略下允许合并的状态事件名称
+
+    @Value("${sse.outbound.writer-threads:8}")
+    private int writerThreads;                      // 写出线程数
+
+    @Value("${sse.keepalive.interval:15000}")
+    private long keepaliveInterval;                 // 空闲连接的保活间隔（毫秒），0 表示关闭
+
+    @Value("${sse.keepalive.slices:15}")
+    private int keepaliveSlices;                    // 每轮保活拆成的时间片数，每片检查约 1/slices 的连接
+
+    @Value("${sse.compression.enabled:false}")
+    private boolean compressionEnabled;             // 是否按 Accept-Encoding 协商压缩（仅 Servlet 传输）
+
+    @Value("${sse.compression.level:6}")
+    private int compressionLevel;                   // 压缩级别 1-9
+
+    @Value("${sse.compression.min-size:256}")
+    private int compressionMinSize;                 // 小于该字节数的帧只用最快级别压缩，节省 CPU
+
+    @Value("${sse.compression.max-connections:5000}")
+    private int compressionMaxConnections;          // 最多同时压缩的连接数，每个约占 256KB 堆外内存，0 表示不限
 
     @Autowired
     private ConnectionRegistry connectionRegistry;    // 连接注册中心
 
+    @Autowired
+    private TopicRegistry topicRegistry;              // 主题订阅节点注册中心
+
+    @Autowired
+    private ReplayLog replayLog;                      // 用户事件回放日志
+
+    @Autowired
+    private MeterRegistry meterRegistry;              // 指标注册表
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < userLocks.length; i++) {
+            userLocks[i] = new Object();
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        writerExecutor = Executors.newFixedThreadPool(writerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "sse-writer-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger keepaliveIndex = new AtomicInteger();
+        keepaliveExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sse-keepalive-" + keepaliveIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tick = keepaliveInterval > 0 ? Math.max(1, keepaliveInterval / Math.max(1, keepaliveSlices)) : REAP_INTERVAL_MILLIS;
+        keepaliveExecutor.scheduleWithFixedDelay(this::keepaliveTick, tick, tick, TimeUnit.MILLISECONDS);
+
+        Gauge.builder("sse.connections", connections, Map::size)
+            .description("Local SSE connections").register(meterRegistry);
+        Gauge.builder("sse.outbound.queued", queuedFrames, AtomicLong::get)
+            .description("Frames waiting in outbound queues").register(meterRegistry);
+        FunctionCounter.builder("sse.outbound.dropped", droppedFrames, AtomicLong::get)
+            .description("Frames dropped by overflow policy or on close").register(meterRegistry);
+        FunctionCounter.builder("sse.outbound.disconnects", slowConsumerDisconnects, AtomicLong::get)
+            .description("Slow clients disconnected on queue overflow").register(meterRegistry);
+        FunctionCounter.builder("sse.keepalive.pings", keepalivePings, AtomicLong::get)
+            .description("Keepalive comment pings sent to idle connections").register(meterRegistry);
+        FunctionCounter.builder("sse.keepalive.reaped", reapedConnections, AtomicLong::get)
+            .description("Dead connections reaped after a failed write").register(meterRegistry);
+        sendTimer = Timer.builder("sse.emitter.send")
+            .description("Time to write one frame to a client").register(meterRegistry);
+
+        compressionStats = new SseCompressor.Stats(Timer.builder("sse.compression.time")
+            .description("CPU time spent compressing one frame").register(meterRegistry));
+        Gauge.builder("sse.compression.connections", compressionStats, SseCompressor.Stats::getConnections)
+            .description("Connections with a compressed stream").register(meterRegistry);
+        FunctionCounter.builder("sse.compression.bytes", compressionStats, SseCompressor.Stats::getBytesIn)
+            .tag("stage", "in").description("Frame bytes before compression").register(meterRegistry);
+        FunctionCounter.builder("sse.compression.bytes", compressionStats, SseCompressor.Stats::getBytesOut)
+            .tag("stage", "out").description("Bytes written to compressed streams").register(meterRegistry);
+    }
+
     /**
-     * 创建 SSE 连接
+     * 创建 SSE 连接（Servlet 传输）
+     * 同一用户的多个连接（多标签页、多设备）并存，互不替换
+     * 开启压缩且客户端接受 gzip / deflate 时，整个事件流压缩后写出，响应带 Content-Encoding
      * @param userId 用户 ID
+     * @param topics 连接时订阅的主题，可为空
+     * @param lastEventId 客户端最后收到的事件 ID，非空时先回放之后的事件
+     * @param acceptEncoding 客户端的 Accept-Encoding，可为空
      * @return SSE 发射器
      */
-    public SseEmitter createConnection(String userId) {
+    public ResponseBodyEmitter createConnection(String userId, Collection<String> topics, String lastEventId,
+                                                String acceptEncoding) {
         String sessionId = UUID.randomUUID().toString();
-        SseEmitter emitter = new SseEmitter(30 * 60 * 1000L);  // 30 分钟超时
+        SseCompressor compressor = newCompressor(acceptEncoding);
+        ResponseBodyEmitter emitter = new EventStreamEmitter(CONNECTION_TIMEOUT.toMillis(),   // 30 分钟超时
+            compressor == null ? null : compressor.getEncoding());
 
         // 连接完成回调
         emitter.onCompletion(() -> {
@@ -52,97 +195,624 @@ public class SseConnectionManager {
             cleanup(userId, sessionId);
         });
 
+        addConnection(new ServletSseConnection(userId, sessionId, emitter, newOutboundQueue(), compressor),
+            topics, lastEventId);
+        return emitter;
+    }
+
+    /**
+     * 按 Accept-Encoding 协商压缩
+     * @param acceptEncoding 客户端的 Accept-Encoding，可为空
+     * @return 压缩器，未开启、客户端不支持或压缩连接数已达上限时返回 null
+     */
+    private SseCompressor newCompressor(String acceptEncoding) {
+        if (!compressionEnabled) {
+            return null;
+        }
+        SseCompressor.Encoding encoding = SseCompressor.Encoding.negotiate(acceptEncoding);
+        if (encoding == null || !compressionStats.tryAcquire(compressionMaxConnections)) {
+            return null;
+        }
+        return new SseCompressor(encoding, compressionLevel, compressionMinSize, compressionStats);
+    }
+
+    /**
+     * 获取每个会话的发送队列容量，其他传输方式按此设置自己的缓冲
+     * @return 队列容量
+     */
+    int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(queueCapacity, overflowPolicy, conflateEvents);
+    }
+
+    /**
+     * 保存连接到内存、注册到 Redis，并发送连接成功事件
+     * 回放在用户锁外读取 Redis：加入会话时开始暂存发给该用户的事件，读到回放后在锁内依次放入回放和暂存的事件，
+     * 暂存事件中已包含在回放里的跳过；事件在路由到本节点之前已写入日志，回放与实时事件合起来不重不漏
+     * @param connection 会话
+     * @param topics 连接时订阅的主题，可为空
+     * @param lastEventId 客户端最后收到的事件 ID，可为空
+     */
+    void addConnection(SseConnection connection, Collection<String> topics, String lastEventId) {
+        String userId = connection.getUserId();
+        String sessionId = connection.getSessionId();
+        boolean replaying = lastEventId != null && !lastEventId.isEmpty() && replayLog.isEnabled();
+
         // 保存连接到内存
-        connections.put(sessionId, emitter);
-        userSessionMap.put(userId, sessionId);
+        connections.put(sessionId, connection);
+        synchronized (lockFor(userId)) {
+            userSessions.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+
+            // 发送连接成功事件
+            enqueue(connection, SseFrame.of("connected",
+                "{\"sessionId\":\"" + sessionId + "\",\"nodeId\":\"" + connectionRegistry.getCurrentNodeId() + "\"}"));
+
+            if (replaying) {
+                connection.holdFrames();
+            }
+        }
 
-        // 注册到 Redis
+        // 注册到 Redis，先于读取回放，读取之后写入日志的事件能路由到本节点
         connectionRegistry.register(userId, sessionId);
 
-        try {
-            // 发送连接成功事件
-            emitter.send(SseEmitter.event()
-                .name("connected")
-                .data("{\"sessionId\":\"" + sessionId + "\",\"nodeId\":\"" + connectionRegistry.getNodeId(userId) + "\"}"));
-        } catch (IOException e) {
-            log.error("Failed to send connected event", e);
-            cleanup(userId, sessionId);
+        if (replaying) {
+            replay(connection, lastEventId);
+        }
+
+        if (topics != null) {
+            for (String topic : topics) {
+                subscribe(sessionId, topic);
+            }
         }
 
         log.info("SSE connection created: userId={}, sessionId={}", userId, sessionId);
-        return emitter;
     }
 
     /**
-     * 发送消息给指定用户
+     * 回放客户端断线期间错过的事件，合并为一帧一次写出，之后放行回放期间暂存的事件
+     * 读取日志不持有用户锁，同一分段上其他用户的发送不会被阻塞
+     * @param connection 会话
+     * @param lastEventId 客户端最后收到的事件 ID
+     */
+    private void replay(SseConnection connection, String lastEventId) {
+        ReplayLog.Replay replay;
+        try {
+            replay = replayLog.readAfter(connection.getUserId(), lastEventId);
+        } catch (Exception e) {
+            log.error("Failed to read replay log for userId: {}", connection.getUserId(), e);
+            replay = null;
+        }
+
+        List<SseFrame> frames = new ArrayList<>();
+        String lastReplayedId = null;
+        if (replay != null) {
+            if (replay.isTruncated()) {
+                frames.add(SseFrame.of("replay-truncated", "{\"lastEventId\":\"" + lastEventId + "\"}"));
+            }
+            for (ReplayLog.Entry entry : replay.getEntries()) {
+                frames.add(SseFrame.of(entry.getId(), entry.getEventName(), entry.getData()));
+                lastReplayedId = entry.getId();
+            }
+        }
+
+        synchronized (lockFor(connection.getUserId())) {
+            List<SseFrame> held = connection.releaseFrames(lastReplayedId);
+            if (connections.get(connection.getSessionId()) != connection) {
+                return;   // 回放期间会话已关闭
+            }
+            if (!frames.isEmpty()) {
+                enqueue(connection, SseFrame.concat(frames));
+            }
+            for (SseFrame frame : held) {
+                if (!connection.isReplayed(frame.getId())) {
+                    enqueue(connection, frame);
+                }
+            }
+        }
+        if (replay != null && !frames.isEmpty()) {
+            log.info("Replayed {} events to userId: {}, sessionId: {}, truncated={}",
+                replay.getEntries().size(), connection.getUserId(), connection.getSessionId(), replay.isTruncated());
+        }
+    }
+
+    private Object lockFor(String userId) {
+        int hash = userId.hashCode();
+        return userLocks[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % userLocks.length];
+    }
+
+    /**
+     * 发送消息给指定用户在当前节点的所有会话
+     * 不写入回放日志，事件不带 ID
      * @param userId 用户 ID
      * @param message 消息内容
-     * @return 是否发送成功
+     * @return 是否至少一个会话发送成功
      */
     public boolean sendMessage(String userId, String message) {
-        String sessionId = userSessionMap.get(userId);
-        if (sessionId == null) {
-            log.warn("No session found for userId: {}", userId);
-            return false;
+        return sendToUser(userId, null, null, message);
+    }
+
+    /**
+     * 发送事件消息给指定用户在当前节点的所有会话
+     * 不写入回放日志，事件不带 ID
+     * @param userId 用户 ID
+     * @param eventName 事件名称
+     * @param data 事件数据
+     * @return 是否至少一个会话发送成功
+     */
+    public boolean sendMessage(String userId, String eventName, String data) {
+        return sendToUser(userId, null, eventName, data);
+    }
+
+    /**
+     * 发送已写入回放日志的事件给指定用户在当前节点的所有会话
+     * 日志由接收发送请求的节点写入一次（见 ReplayLog），这里只带上事件 ID
+     * @param userId 用户 ID
+     * @param eventId 事件 ID，为空时事件不带 ID
+     * @param eventName 事件名称，为空时发送默认 message 事件
+     * @param data 事件数据
+     * @return 是否至少一个会话发送成功
+     */
+    public boolean sendEvent(String userId, String eventId, String eventName, String data) {
+        return sendToUser(userId, eventId, eventName, data);
+    }
+
+    /**
+     * 发送给用户的所有本地会话
+     * 事件只编码一次，放入各会话的发送队列后立即返回，由写出线程异步写出；
+     * 正在回放的会话先暂存事件，已由回放写出的事件不再重复发送
+     * @param userId 用户 ID
+     * @param eventId 事件 ID，可为空
+     * @param eventName 事件名称，为空时发送默认 message 事件
+     * @param data 事件数据
+     * @return 是否至少一个会话入队成功
+     */
+    private boolean sendToUser(String userId, String eventId, String eventName, String data) {
+        boolean sent = false;
+        synchronized (lockFor(userId)) {
+            Set<String> sessionIds = userSessions.getOrDefault(userId, Collections.emptySet());
+            if (sessionIds.isEmpty()) {
+                log.warn("No session found for userId: {}", userId);
+                return false;
+            }
+
+            SseFrame frame = SseFrame.of(eventId, eventName, data);
+            for (String sessionId : sessionIds) {
+                sent |= sendToSession(sessionId, frame);
+            }
         }
 
-        SseEmitter emitter = connections.get(sessionId);
-        if (emitter == null) {
+        if (sent) {
+            connectionRegistry.updateHeartbeat(userId);  // 更新心跳
+        }
+        return sent;
+    }
+
+    /**
+     * 发送给单个会话，调用方持有用户锁
+     * @param sessionId 会话 ID
+     * @param frame 预编码的 SSE 帧
+     * @return 是否入队成功
+     */
+    private boolean sendToSession(String sessionId, SseFrame frame) {
+        SseConnection connection = connections.get(sessionId);
+        if (connection == null) {
             log.warn("No emitter found for sessionId: {}", sessionId);
             return false;
         }
+        if (connection.holdIfReplaying(frame)) {
+            return true;
+        }
+        if (connection.isReplayed(frame.getId())) {
+            return true;   // 已由回放写出
+        }
+        return enqueue(connection, frame);
+    }
 
+    /**
+     * 帧放入会话的发送队列，必要时提交写出任务
+     * 队列满时按溢出策略丢弃旧帧或断开慢客户端
+     * @param connection 会话
+     * @param frame 预编码的 SSE 帧
+     * @return 是否入队成功
+     */
+    private boolean enqueue(SseConnection connection, SseFrame frame) {
+        if (connection.isDirect()) {
+            return emit(connection, frame);
+        }
+        switch (connection.getOutbound().offer(frame)) {
+            case OVERFLOW:
+                droppedFrames.incrementAndGet();
+                if (connection.evict()) {
+                    slowConsumerDisconnects.incrementAndGet();
+                    log.warn("Outbound queue overflow, disconnecting slow client: userId={}, sessionId={}",
+                        connection.getUserId(), connection.getSessionId());
+                    scheduleEviction(connection);
+                }
+                return false;
+            case REPLACED:
+                droppedFrames.incrementAndGet();
+                break;
+            default:
+                queuedFrames.incrementAndGet();
+                break;
+        }
+        scheduleDrain(connection);
+        return true;
+    }
+
+    /**
+     * 帧直接交给传输层，由传输层缓冲并异步写出，不经过发送队列和写出线程
+     * 传输层缓冲已满或连接已结束时发送失败，按慢客户端断开
+     * @param connection 会话
+     * @param frame 预编码的 SSE 帧
+     * @return 是否发送成功
+     */
+    private boolean emit(SseConnection connection, SseFrame frame) {
+        long start = System.nanoTime();
         try {
-            emitter.send(SseEmitter.event().data(message));
-            connectionRegistry.updateHeartbeat(userId);  // 更新心跳
-            return true;
+            connection.send(frame);
         } catch (IOException e) {
-            log.error("Failed to send message to userId: {}", userId, e);
-            cleanup(userId, sessionId);
+            droppedFrames.incrementAndGet();
+            if (connection.evict()) {
+                slowConsumerDisconnects.incrementAndGet();
+                log.warn("Failed to emit event, disconnecting slow client: userId={}, sessionId={}, {}",
+                    connection.getUserId(), connection.getSessionId(), e.getMessage());
+                scheduleEviction(connection);
+            }
             return false;
         }
+        long end = System.nanoTime();
+        sendTimer.record(end - start, TimeUnit.NANOSECONDS);
+        connection.markWritten(end);
+        return true;
     }
 
     /**
-     * 发送事件消息给指定用户
-     * @param userId 用户 ID
-     * @param eventName 事件名称
-     * @param data 事件数据
-     * @return 是否发送成功
+     * 在写出线程上清理被断开的慢客户端
+     * 调用方可能持有用户锁或是消息总线的处理线程，注销等 Redis 操作不在调用方执行
+     * @param connection 会话
      */
-    public boolean sendMessage(String userId, String eventName, Object data) {
-        String sessionId = userSessionMap.get(userId);
-        if (sessionId == null) {
-            log.warn("No session found for userId: {}", userId);
-            return false;
+    private void scheduleEviction(SseConnection connection) {
+        try {
+            writerExecutor.execute(() -> cleanup(connection.getUserId(), connection.getSessionId()));
+        } catch (RejectedExecutionException e) {
+            cleanup(connection.getUserId(), connection.getSessionId(), true);   // 关闭中，交给最后一次批量回收
         }
+    }
 
-        SseEmitter emitter = connections.get(sessionId);
-        if (emitter == null) {
-            log.warn("No emitter found for sessionId: {}", sessionId);
-            return false;
+    private void scheduleDrain(SseConnection connection) {
+        if (!connection.tryStartDrain()) {
+            return;   // 已有写出任务，新帧会被它写出
         }
+        try {
+            writerExecutor.execute(() -> drain(connection));
+        } catch (RejectedExecutionException e) {
+            connection.finishDrain();   // 关闭中
+        }
+    }
 
+    /**
+     * 写出任务：排空会话的发送队列
+     * 每次最多写出 DRAIN_BATCH_SIZE 帧，仍有剩余时重新提交，避免一个会话长期占用写出线程
+     * @param connection 会话
+     */
+    private void drain(SseConnection connection) {
+        OutboundQueue outbound = connection.getOutbound();
+        long lastWrite = 0;
         try {
-            emitter.send(SseEmitter.event().name(eventName).data(data));
-            connectionRegistry.updateHeartbeat(userId);  // 更新心跳
-            return true;
+            for (int i = 0; i < DRAIN_BATCH_SIZE; i++) {
+                SseFrame frame = outbound.poll();
+                if (frame == null) {
+                    break;
+                }
+                queuedFrames.decrementAndGet();
+                long start = System.nanoTime();
+                connection.send(frame);
+                lastWrite = System.nanoTime();
+                sendTimer.record(lastWrite - start, TimeUnit.NANOSECONDS);
+            }
         } catch (IOException e) {
-            log.error("Failed to send event to userId: {}", userId, e);
-            cleanup(userId, sessionId);
+            log.warn("Failed to send event to userId: {}, sessionId: {}, reaping connection: {}",
+                connection.getUserId(), connection.getSessionId(), e.toString());
+            connection.finishDrain();
+            cleanup(connection.getUserId(), connection.getSessionId(), true);
+            return;
+        } catch (RuntimeException e) {
+            log.error("Unexpected error sending event to userId: {}, sessionId: {}",
+                connection.getUserId(), connection.getSessionId(), e);
+            connection.finishDrain();
+            cleanup(connection.getUserId(), connection.getSessionId(), true);
+            return;
+        }
+        if (lastWrite != 0) {
+            connection.markWritten(lastWrite);
+        }
+        connection.finishDrain();
+        // 释放写出权后再检查一次，避免与并发入队的帧错过调度
+        if (!outbound.isEmpty()) {
+            scheduleDrain(connection);
+        } else if (connection.isClosing()) {
+            cleanup(connection.getUserId(), connection.getSessionId());   // 待关闭的会话已写空
+        }
+    }
+
+    /**
+     * 进入排空模式：之后关闭的会话不再逐个从 Redis 注销，由调用方最后通过一次 pipeline 批量注销
+     */
+    public void beginMigration() {
+        migrating = true;
+    }
+
+    /**
+     * 获取当前所有会话 ID 的快照
+     * @return 会话 ID 列表
+     */
+    public List<String> getSessionIds() {
+        return new ArrayList<>(connections.keySet());
+    }
+
+    /**
+     * 通知会话迁移到其他节点：发送带 retry 的 reconnect 事件，写出后关闭连接
+     * 先入队再标记待关闭，保证关闭时 reconnect 事件已经写出
+     * @param sessionId 会话 ID
+     * @param retryMillis 建议客户端等待的重连延迟（毫秒）
+     * @return 是否已通知
+     */
+    public boolean migrateSession(String sessionId, long retryMillis) {
+        SseConnection connection = connections.get(sessionId);
+        if (connection == null) {
+            return false;
+        }
+        SseFrame frame = SseFrame.withRetry(retryMillis, "reconnect",
+            "{\"retry\":" + retryMillis + ",\"nodeId\":\"" + connectionRegistry.getCurrentNodeId() + "\"}");
+        if (!enqueue(connection, frame)) {
+            return false;
+        }
+        connection.markClosing();
+        scheduleDrain(connection);   // 队列已被写空时由新的写出任务关闭
+        return true;
+    }
+
+    /**
+     * 立即关闭所有剩余会话，排空超时后使用
+     * @return 关闭的会话数
+     */
+    public int closeAll() {
+        int closed = 0;
+        for (SseConnection connection : new ArrayList<>(connections.values())) {
+            cleanup(connection.getUserId(), connection.getSessionId());
+            closed++;
+        }
+        return closed;
+    }
+
+    /**
+     * 会话订阅主题
+     * 当前节点出现该主题的第一个订阅者时，登记到 Redis
+     * compute 内只判断是否为第一个订阅者，Redis 写入在 compute 返回后执行，不持有 Map 的桶锁做网络 I/O
+     * @param sessionId 会话 ID
+     * @param topic 主题
+     * @return 是否订阅成功
+     */
+    public boolean subscribe(String sessionId, String topic) {
+        SseConnection connection = connections.get(sessionId);
+        if (connection == null || !connection.getTopics().add(topic)) {
             return false;
         }
+        boolean[] first = new boolean[1];
+        topicSessions.compute(topic, (k, sessions) -> {
+            if (sessions == null) {
+                sessions = ConcurrentHashMap.newKeySet();
+                first[0] = true;
+            }
+            sessions.add(sessionId);
+            return sessions;
+        });
+        if (first[0]) {
+            topicRegistry.addCurrentNode(topic);
+            // 登记期间最后一个订阅者可能已离开且先完成了移除，此时撤销登记
+            if (!topicSessions.containsKey(topic)) {
+                topicRegistry.removeCurrentNode(topic);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 会话取消订阅主题
+     * 当前节点该主题的最后一个订阅者离开时，从 Redis 移除
+     * @param sessionId 会话 ID
+     * @param topic 主题
+     */
+    public void unsubscribe(String sessionId, String topic) {
+        SseConnection connection = connections.get(sessionId);
+        if (connection != null) {
+            connection.getTopics().remove(topic);
+        }
+        removeTopicSession(topic, sessionId);
+    }
+
+    /**
+     * 用户在当前节点的所有会话订阅主题
+     * @param userId 用户 ID
+     * @param topic 主题
+     * @return 订阅的会话数
+     */
+    public int subscribeUser(String userId, String topic) {
+        int count = 0;
+        for (String sessionId : userSessions.getOrDefault(userId, Collections.emptySet())) {
+            if (subscribe(sessionId, topic)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 用户在当前节点的所有会话取消订阅主题
+     * @param userId 用户 ID
+     * @param topic 主题
+     */
+    public void unsubscribeUser(String userId, String topic) {
+        for (String sessionId : userSessions.getOrDefault(userId, Collections.emptySet())) {
+            unsubscribe(sessionId, topic);
+        }
+    }
+
+    /**
+     * 发布消息给主题在当前节点的所有订阅者
+     * 事件只编码一次，放入各订阅会话的发送队列
+     * @param topic 主题
+     * @param eventName 事件名称，为空时发送默认 message 事件
+     * @param data 事件数据
+     * @return 入队成功的会话数
+     */
+    public int publishToTopic(String topic, String eventName, String data) {
+        Set<String> sessionIds = topicSessions.get(topic);
+        if (sessionIds == null || sessionIds.isEmpty()) {
+            return 0;
+        }
+        List<SseConnection> targets = new ArrayList<>(sessionIds.size());
+        for (String sessionId : sessionIds) {
+            SseConnection connection = connections.get(sessionId);
+            if (connection != null) {
+                targets.add(connection);
+            }
+        }
+        return fanout(targets, SseFrame.of(eventName, data));
+    }
+
+    /**
+     * 广播消息给当前节点的所有连接
+     * 事件只编码一次；会话快照按写出线程数切成分片，各分片在写出线程池上并行入队，由写出线程池并行写出
+     * @param eventName 事件名称，为空时发送默认 message 事件
+     * @param data 事件数据
+     * @return 入队成功的会话数
+     */
+    public int broadcastToAll(String eventName, String data) {
+        long start = System.nanoTime();
+        SseFrame frame = SseFrame.of(eventName, data);
+        List<SseConnection> targets = new ArrayList<>(connections.values());
+        int delivered = parallelFanout(targets, frame);
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastBroadcastMillis = elapsedMillis;
+        lastBroadcastSessions = targets.size();
+        log.info("Broadcast queued to {}/{} local sessions in {}ms", delivered, targets.size(), elapsedMillis);
+        return delivered;
     }
 
     /**
-     * 关闭指定用户的连接
+     * 把会话列表切成分片，在写出线程池上并行入队，等待全部分片完成后返回
+     * 分片任务只入队不写出，不会等待其他写出任务；线程池已关闭时剩余分片在调用线程上入队
+     * @param targets 会话列表
+     * @param frame 预编码的 SSE 帧
+     * @return 入队成功的会话数
+     */
+    private int parallelFanout(List<SseConnection> targets, SseFrame frame) {
+        int chunks = Math.min(writerThreads, targets.size() / FANOUT_CHUNK_SIZE);
+        if (chunks <= 1) {
+            return fanout(targets, frame);
+        }
+        int chunkSize = (targets.size() + chunks - 1) / chunks;
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(chunks);
+        int delivered = 0;
+        for (int from = 0; from < targets.size(); from += chunkSize) {
+            List<SseConnection> chunk = targets.subList(from, Math.min(from + chunkSize, targets.size()));
+            try {
+                futures.add(CompletableFuture.supplyAsync(() -> fanout(chunk, frame), writerExecutor));
+            } catch (RejectedExecutionException e) {
+                delivered += fanout(chunk, frame);   // 关闭中
+            }
+        }
+        for (CompletableFuture<Integer> future : futures) {
+            delivered += future.join();
+        }
+        return delivered;
+    }
+
+    /**
+     * 发送给一组会话
+     * @param targets 会话列表
+     * @param frame 预编码的 SSE 帧
+     * @return 入队成功的会话数
+     */
+    private int fanout(List<SseConnection> targets, SseFrame frame) {
+        int delivered = 0;
+        for (SseConnection connection : targets) {
+            if (enqueue(connection, frame)) {
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * 关闭指定用户在当前节点的所有连接
      * @param userId 用户 ID
      */
     public void closeConnection(String userId) {
-        String sessionId = userSessionMap.get(userId);
-        if (sessionId != null) {
-            cleanup(userId, sessionId);
+        Set<String> sessionIds = userSessions.get(userId);
+        if (sessionIds != null) {
+            for (String sessionId : new ArrayList<>(sessionIds)) {
+                cleanup(userId, sessionId);
+            }
+        }
+    }
+
+    /**
+     * 保活时间片：检查本轮的下一批连接，给空闲连接发送注释 ping，然后批量回收写出失败的死连接
+     * 每轮开始时取连接快照，分 keepaliveSlices 个时间片处理完，避免一次给所有连接写出造成尖峰
+     */
+    private void keepaliveTick() {
+        try {
+            if (keepaliveInterval > 0) {
+                pingIdleConnections();
+            }
+            reapDeadConnections();
+        } catch (Exception e) {
+            log.error("Keepalive tick failed", e);
+        }
+    }
+
+    private void pingIdleConnections() {
+        if (keepaliveRound.isEmpty()) {
+            keepaliveRound.addAll(connections.values());
+            keepaliveSliceSize = (keepaliveRound.size() + keepaliveSlices - 1) / Math.max(1, keepaliveSlices);
+        }
+        long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(keepaliveInterval);
+        int pinged = 0;
+        for (int i = 0; i < keepaliveSliceSize && !keepaliveRound.isEmpty(); i++) {
+            SseConnection connection = keepaliveRound.poll();
+            // 已关闭、待关闭、有帧待写出或最近写出过的连接不需要 ping；写出中的失败会由写出线程回收
+            if (connections.get(connection.getSessionId()) != connection || connection.isClosing()
+                    || !connection.getOutbound().isEmpty() || connection.getLastWriteNanos() - idleSince > 0) {
+                continue;
+            }
+            if (enqueue(connection, KEEPALIVE_FRAME)) {
+                pinged++;
+            }
+        }
+        keepalivePings.addAndGet(pinged);
+    }
+
+    /**
+     * 一次 pipeline 注销写出失败的死连接
+     */
+    private void reapDeadConnections() {
+        if (reapedSessions.isEmpty()) {
+            return;
+        }
+        Map<String, List<String>> batch = new HashMap<>();
+        Map.Entry<String, String> session;
+        while ((session = reapedSessions.poll()) != null) {
+            batch.computeIfAbsent(session.getKey(), k -> new ArrayList<>()).add(session.getValue());
         }
+        int unregistered = connectionRegistry.unregisterAll(batch);
+        log.info("Reaped {} dead connections of {} users", unregistered, batch.size());
     }
 
     /**
@@ -150,17 +820,79 @@ public class SseConnectionManager {
      * @param userId 用户 ID
      * @param sessionId 会话 ID
      */
-    private void cleanup(String userId, String sessionId) {
-        SseEmitter emitter = connections.remove(sessionId);
-        if (emitter != null) {
-            try {
-                emitter.complete();
-            } catch (Exception e) {
-                log.error("Error completing emitter", e);
+    void cleanup(String userId, String sessionId) {
+        cleanup(userId, sessionId, false);
+    }
+
+    /**
+     * 清理连接资源
+     * @param userId 用户 ID
+     * @param sessionId 会话 ID
+     * @param reap 是否为写出失败的死连接：本地立即清理，Redis 注销交给保活线程与其他死连接一起批量执行
+     */
+    private void cleanup(String userId, String sessionId, boolean reap) {
+        SseConnection connection = connections.remove(sessionId);
+        if (connection == null) {
+            return;   // 已被清理（complete 会再次触发完成回调）
+        }
+        try {
+            connection.complete();
+        } catch (Exception e) {
+            log.error("Error completing emitter", e);
+        }
+        int discarded = connection.getOutbound().clear();
+        if (discarded > 0) {
+            queuedFrames.addAndGet(-discarded);
+            droppedFrames.addAndGet(discarded);
+        }
+        for (String topic : connection.getTopics()) {
+            removeTopicSession(topic, sessionId);
+        }
+        userSessions.computeIfPresent(userId, (k, sessions) -> {
+            sessions.remove(sessionId);
+            return sessions.isEmpty() ? null : sessions;
+        });
+        if (migrating) {
+            return;   // 排空结束时批量注销
+        }
+        if (reap) {
+            reapedConnections.incrementAndGet();
+            reapedSessions.add(Map.entry(userId, sessionId));
+        } else {
+            connectionRegistry.unregister(userId, sessionId);  // 从 Redis 注销
+        }
+    }
+
+    /**
+     * 从主题中移除会话，当前节点该主题的最后一个订阅者离开时从 Redis 移除
+     * 与 subscribe 相同，Redis 写入在 computeIfPresent 返回后执行
+     * @param topic 主题
+     * @param sessionId 会话 ID
+     */
+    private void removeTopicSession(String topic, String sessionId) {
+        boolean[] last = new boolean[1];
+        topicSessions.computeIfPresent(topic, (k, sessions) -> {
+            sessions.remove(sessionId);
+            if (sessions.isEmpty()) {
+                last[0] = true;
+                return null;
+            }
+            return sessions;
+        });
+        if (last[0]) {
+            topicRegistry.removeCurrentNode(topic);
+            // 移除期间出现了新的第一个订阅者且其登记先完成，此时重新登记
+            if (topicSessions.containsKey(topic)) {
+                topicRegistry.addCurrentNode(topic);
             }
         }
-        userSessionMap.remove(userId);
-        connectionRegistry.unregister(userId);  // 从 Redis 注销
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writerExecutor.shutdown();
+        keepaliveExecutor.shutdown();
+        reapDeadConnections();
     }
 
     /**
@@ -171,12 +903,92 @@ public class SseConnectionManager {
         return connections.size();
     }
 
+    /**
+     * 获取当前节点有订阅者的主题数
+     * @return 主题数
+     */
+    public int getTopicCount() {
+        return topicSessions.size();
+    }
+
+    /**
+     * 获取所有发送队列中待写出的帧数
+     * @return 帧数
+     */
+    public long getQueuedFrames() {
+        return queuedFrames.get();
+    }
+
+    /**
+     * 获取因队列溢出或连接关闭丢弃的帧数
+     * @return 帧数
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * 获取因发送队列溢出被断开的慢客户端数
+     * @return 连接数
+     */
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.get();
+    }
+
+    /**
+     * 获取已发送的保活 ping 数
+     * @return ping 数
+     */
+    public long getKeepalivePings() {
+        return keepalivePings.get();
+    }
+
+    /**
+     * 获取写出失败被回收的死连接数
+     * @return 连接数
+     */
+    public long getReapedConnections() {
+        return reapedConnections.get();
+    }
+
+    /**
+     * 获取当前压缩中的连接数
+     * @return 连接数
+     */
+    public int getCompressedConnections() {
+        return compressionStats.getConnections();
+    }
+
+    /**
+     * 获取压缩后与压缩前的字节数之比
+     * @return 比值，尚未压缩时为 1
+     */
+    public double getCompressionRatio() {
+        return compressionStats.getRatio();
+    }
+
+    /**
+     * 获取最近一次全量广播耗时（毫秒）
+     * @return 耗时
+     */
+    public long getLastBroadcastMillis() {
+        return lastBroadcastMillis;
+    }
+
+    /**
+     * 获取最近一次全量广播的会话数
+     * @return 会话数
+     */
+    public int getLastBroadcastSessions() {
+        return lastBroadcastSessions;
+    }
+
     /**
      * 检查是否有指定用户的连接
      * @param userId 用户 ID
      * @return 是否有连接
      */
     public boolean hasConnection(String userId) {
-        return userSessionMap.containsKey(userId);
+        return userSessions.containsKey(userId);
     }
 }
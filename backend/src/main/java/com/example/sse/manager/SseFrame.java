@@ -0,0 +1,158 @@
+package com.example.sse.manager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 预编码的 SSE 帧
+ * 事件只编码一次为字节数组，之后可以写给任意多个会话，不再重复序列化
+ */
+public final class SseFrame {
+
+    private final String id;                                  // 事件 ID
+    private final String eventName;                           // 事件名称
+    private final String data;                                // 事件数据
+    private final Long retry;                                 // 客户端重连延迟（毫秒），为空时不写 retry 字段
+    private final String comment;                             // 注释内容，注释帧不是事件，客户端直接忽略
+    private final byte[] bytes;                               // 编码后的帧内容
+    private final List<SseFrame> parts;                       // 组成该帧的单个事件，合并帧包含多个
+    private volatile Object adapted;                          // 其他传输方式使用的事件对象，按需创建
+
+    private SseFrame(String id, String eventName, String data, Long retry, String comment,
+                     byte[] bytes, List<SseFrame> parts) {
+        this.id = id;
+        this.eventName = eventName;
+        this.data = data;
+        this.retry = retry;
+        this.comment = comment;
+        this.bytes = bytes;
+        this.parts = parts != null ? parts : Collections.singletonList(this);
+    }
+
+    /**
+     * 编码事件
+     * @param eventName 事件名称，为空时为默认 message 事件
+     * @param data 事件数据，多行数据（\n、\r\n 或 \r 换行）会拆成多个 data 字段
+     * @return SSE 帧
+     */
+    public static SseFrame of(String eventName, String data) {
+        return of(null, eventName, data);
+    }
+
+    /**
+     * 编码带 ID 的事件，客户端重连时通过 Last-Event-ID 带回最后收到的 ID
+     * @param id 事件 ID，可为空
+     * @param eventName 事件名称，为空时为默认 message 事件
+     * @param data 事件数据，多行数据（\n、\r\n 或 \r 换行）会拆成多个 data 字段
+     * @return SSE 帧
+     */
+    public static SseFrame of(String id, String eventName, String data) {
+        return encode(id, eventName, data, null);
+    }
+
+    /**
+     * 编码带重连延迟的事件，客户端断线后按 retry 等待再自动重连
+     * @param retryMillis 重连延迟（毫秒）
+     * @param eventName 事件名称，为空时为默认 message 事件
+     * @param data 事件数据
+     * @return SSE 帧
+     */
+    public static SseFrame withRetry(long retryMillis, String eventName, String data) {
+        return encode(null, eventName, data, retryMillis);
+    }
+
+    /**
+     * 编码注释帧，用作保活 ping：客户端忽略，只让连接上有数据写出
+     * @param comment 注释内容，单行
+     * @return SSE 帧
+     */
+    public static SseFrame ofComment(String comment) {
+        byte[] bytes = (":" + comment + "\n\n").getBytes(StandardCharsets.UTF_8);
+        return new SseFrame(null, null, null, null, comment, bytes, null);
+    }
+
+    private static SseFrame encode(String id, String eventName, String data, Long retry) {
+        // 客户端把 \r\n、\r、\n 都当作换行，先统一成 \n 再拆 data 字段，否则单独的 \r 会截断字段；
+        // 帧里保存的也是统一后的数据，响应式传输按 \n 拆分时结果一致
+        data = data.replace("\r\n", "\n").replace('\r', '\n');
+        StringBuilder sb = new StringBuilder(data.length() + 64);
+        if (id != null) {
+            sb.append("id:").append(id).append('\n');
+        }
+        if (retry != null) {
+            sb.append("retry:").append(retry).append('\n');
+        }
+        if (eventName != null) {
+            sb.append("event:").append(eventName).append('\n');
+        }
+        sb.append("data:").append(data.replace("\n", "\ndata:")).append("\n\n");
+        return new SseFrame(id, eventName, data, retry, null, sb.toString().getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    /**
+     * 把多个事件合并为一帧，一次写出
+     * @param frames 事件帧，按顺序写出
+     * @return 合并后的帧
+     */
+    public static SseFrame concat(List<SseFrame> frames) {
+        if (frames.size() == 1) {
+            return frames.get(0);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (SseFrame frame : frames) {
+            out.write(frame.bytes, 0, frame.bytes.length);
+        }
+        return new SseFrame(null, null, null, null, null, out.toByteArray(), frames);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * 获取组成该帧的单个事件，普通帧只包含自身
+     * @return 事件帧列表
+     */
+    public List<SseFrame> getParts() {
+        return parts;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public Long getRetry() {
+        return retry;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    /**
+     * 转换为其他传输方式使用的事件对象（如 Reactive 传输的 ServerSentEvent），多个会话共享同一个实例
+     * 合并帧需要逐个转换 getParts() 中的事件；同一帧只使用一种转换
+     * @param converter 转换函数
+     * @return 事件对象
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T adapt(Function<SseFrame, T> converter) {
+        Object event = adapted;
+        if (event == null) {
+            event = converter.apply(this);
+            adapted = event;
+        }
+        return (T) event;
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.sse.manager;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流式输出会话管理器
+ * 所有流式输出由一个小的调度线程池驱动，每输出一段后重新调度下一段，不再每个流占用一个线程
+ * 开启合并时按实际生成节奏自适应：距上次发送已超过一个时间窗口的字符立即发送，首字不增加延迟；
+ * 窗口内到达的字符进入缓冲区，在上次发送后一个窗口到期时合并为一个 stream 事件发送，字节预算先用满时提前发送
+ */
+@Slf4j
+@Service
+public class StreamSessionManager {
+
+    private final Map<String, StreamTask> activeStreams = new ConcurrentHashMap<>();   // streamId -> 流式输出任务
+    private final AtomicInteger activeCount = new AtomicInteger();      // 活跃流数量
+    private final AtomicLong emittedChunks = new AtomicLong();          // 已发送的片段数（stream 事件帧数）
+    private final AtomicLong emittedChars = new AtomicLong();           // 已发送的字符数
+    private final AtomicLong completedStreams = new AtomicLong();       // 正常完成的流数量
+    private final AtomicLong cancelledStreams = new AtomicLong();       // 取消的流数量
+    private final AtomicLong rejectedStreams = new AtomicLong();        // 超过并发上限被拒绝的流数量
+
+    private ScheduledExecutorService scheduler;   // 流式输出调度器
+
+    @Autowired
+    private SseConnectionManager connectionManager;   // SSE 连接管理器
+
+    @Autowired
+    private MeterRegistry meterRegistry;              // 指标注册表
+
+    @Value("${sse.stream.max-concurrent:1000}")
+    private int maxConcurrentStreams;   // 最大并发流数量
+
+    @Value("${sse.stream.scheduler-threads:2}")
+    private int schedulerThreads;       // 调度线程数
+
+    @Value("${sse.stream.chunk-interval:50}")
+    private long chunkIntervalMillis;   // 片段间隔（毫秒）
+
+    @Value("${sse.stream.coalesce-window:150}")
+    private long coalesceWindowMillis;  // 合并时间窗口（毫秒），两次发送的最小间隔，需大于片段间隔才会合并，0 表示每个字符单独发送
+
+    @Value("${sse.stream.coalesce-bytes:256}")
+    private int coalesceBytes;          // 合并字节预算，缓冲达到后立即发送
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(schedulerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "sse-stream-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("sse.streams.active", activeCount, AtomicInteger::get)
+            .description("Active streamed outputs").register(meterRegistry);
+        FunctionCounter.builder("sse.streams.chunks", emittedChunks, AtomicLong::get)
+            .description("Stream events emitted").register(meterRegistry);
+        FunctionCounter.builder("sse.streams.chars", emittedChars, AtomicLong::get)
+            .description("Characters emitted in stream events").register(meterRegistry);
+        FunctionCounter.builder("sse.streams.finished", completedStreams, AtomicLong::get)
+            .tag("result", "completed").description("Streamed outputs finished").register(meterRegistry);
+        FunctionCounter.builder("sse.streams.finished", cancelledStreams, AtomicLong::get)
+            .tag("result", "cancelled").description("Streamed outputs finished").register(meterRegistry);
+        FunctionCounter.builder("sse.streams.rejected", rejectedStreams, AtomicLong::get)
+            .description("Streams rejected by the concurrency limit").register(meterRegistry);
+
+        if (coalesceWindowMillis > 0 && coalesceWindowMillis <= chunkIntervalMillis) {
+            log.warn("Coalesce window {}ms is not larger than chunk interval {}ms, stream characters will be sent one by one",
+                coalesceWindowMillis, chunkIntervalMillis);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 开始向用户流式输出文本，逐字发送 stream 事件，最后发送 stream-complete 事件
+     * @param userId 用户 ID
+     * @param text 输出文本
+     * @return 流 ID，超过并发上限时返回 null
+     */
+    public String start(String userId, String text) {
+        int active;
+        do {
+            active = activeCount.get();
+            if (active >= maxConcurrentStreams) {
+                rejectedStreams.incrementAndGet();
+                log.warn("Stream rejected for userId: {}, active streams reached limit {}", userId, maxConcurrentStreams);
+                return null;
+            }
+        } while (!activeCount.compareAndSet(active, active + 1));
+
+        String streamId = UUID.randomUUID().toString();
+        StreamTask task = new StreamTask(streamId, userId, text);
+        activeStreams.put(streamId, task);
+        task.schedule(0);
+
+        log.info("Stream output started: userId={}, streamId={}", userId, streamId);
+        return streamId;
+    }
+
+    /**
+     * 取消指定流
+     * @param streamId 流 ID
+     * @return 是否取消成功
+     */
+    public boolean cancel(String streamId) {
+        StreamTask task = activeStreams.get(streamId);
+        if (task == null) {
+            return false;
+        }
+        task.cancel();
+        return true;
+    }
+
+    /**
+     * 取消用户在当前节点的所有流
+     * @param userId 用户 ID
+     * @return 取消的流数量
+     */
+    public int cancelByUser(String userId) {
+        List<StreamTask> tasks = new ArrayList<>();
+        for (StreamTask task : activeStreams.values()) {
+            if (task.userId.equals(userId)) {
+                tasks.add(task);
+            }
+        }
+        tasks.forEach(StreamTask::cancel);
+        return tasks.size();
+    }
+
+    public int getActiveStreamCount() {
+        return activeCount.get();
+    }
+
+    public long getEmittedChunks() {
+        return emittedChunks.get();
+    }
+
+    public long getEmittedChars() {
+        return emittedChars.get();
+    }
+
+    public long getCompletedStreams() {
+        return completedStreams.get();
+    }
+
+    public long getCancelledStreams() {
+        return cancelledStreams.get();
+    }
+
+    public long getRejectedStreams() {
+        return rejectedStreams.get();
+    }
+
+    /**
+     * 单个流式输出任务
+     * 每次执行生成一个字符放入缓冲区，然后调度下一次执行；缓冲区立即发送，或由窗口定时器、字节预算触发发送
+     * 生成与定时发送可能在不同调度线程上执行，缓冲区相关操作都持有任务锁
+     */
+    private class StreamTask implements Runnable {
+
+        private final String streamId;
+        private final String userId;
+        private final String text;
+        private final StringBuilder buffer = new StringBuilder();   // 尚未发送的字符
+        private int bufferBytes;                       // 缓冲区 UTF-8 字节数
+        private long lastFlush;                        // 上次发送的时间
+        private long flushes;                          // 已发送次数，窗口定时器据此判断缓冲区是否已被提前发送
+        private int position;                          // 下一个要生成的字符位置，以上字段持有任务锁访问
+        private ScheduledFuture<?> flushTimer;         // 当前缓冲区的窗口到期发送定时器，为空时缓冲区立即发送
+        private volatile boolean finished;
+        private volatile ScheduledFuture<?> future;
+
+        private StreamTask(String streamId, String userId, String text) {
+            this.streamId = streamId;
+            this.userId = userId;
+            this.text = text;
+        }
+
+        private void schedule(long delayMillis) {
+            future = scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void run() {
+            if (finished) {
+                return;
+            }
+            try {
+                if (position < text.length()) {
+                    append(text.charAt(position++));
+                    if (shouldFlush() && !flush()) {
+                        // 用户已断开，停止输出
+                        log.info("Stream output stopped, userId {} disconnected: streamId={}", userId, streamId);
+                        finish(cancelledStreams);
+                        return;
+                    }
+                    schedule(position < text.length() ? chunkIntervalMillis : 0);
+                } else {
+                    // 立即发送剩余字符，再发送流式输出完成事件
+                    if (!flush()) {
+                        log.info("Stream output stopped, userId {} disconnected: streamId={}", userId, streamId);
+                        finish(cancelledStreams);
+                        return;
+                    }
+                    connectionManager.sendMessage(userId, "stream-complete", "completed");
+                    log.info("Stream output completed for userId: {}", userId);
+                    finish(completedStreams);
+                }
+            } catch (Exception e) {
+                log.error("Stream output failed for userId: {}", userId, e);
+                finish(cancelledStreams);
+            }
+        }
+
+        /**
+         * 字符放入缓冲区
+         * 缓冲区的第一个字符距上次发送不足一个窗口时，挂一个在上次发送后一个窗口到期的定时器；否则不挂定时器，立即发送
+         * @param c 字符
+         */
+        private void append(char c) {
+            if (buffer.length() == 0 && coalesceWindowMillis > 0) {
+                long wait = lastFlush + coalesceWindowMillis - System.currentTimeMillis();
+                if (wait > 0) {
+                    long generation = flushes;
+                    flushTimer = scheduler.schedule(() -> flushWindow(generation), wait, TimeUnit.MILLISECONDS);
+                }
+            }
+            buffer.append(c);
+            bufferBytes += c < 0x80 ? 1 : (c < 0x800 ? 2 : 3);
+        }
+
+        private boolean shouldFlush() {
+            return coalesceWindowMillis <= 0 || flushTimer == null || bufferBytes >= coalesceBytes;
+        }
+
+        /**
+         * 窗口到期，发送缓冲区
+         * 已提前发送的缓冲区不再处理：定时器被取消前可能已开始执行，此时缓冲区为空或属于下一个窗口
+         * @param generation 挂定时器时的发送次数
+         */
+        private synchronized void flushWindow(long generation) {
+            if (finished || generation != flushes || buffer.length() == 0) {
+                return;
+            }
+            try {
+                if (!flush()) {
+                    // 用户已断开，下一次生成看到结束标记后不再执行
+                    log.info("Stream output stopped, userId {} disconnected: streamId={}", userId, streamId);
+                    finish(cancelledStreams);
+                }
+            } catch (Exception e) {
+                log.error("Stream output failed for userId: {}", userId, e);
+                finish(cancelledStreams);
+            }
+        }
+
+        /**
+         * 把缓冲区作为一个 stream 事件发送
+         * @return 是否发送成功，缓冲区为空时返回 true
+         */
+        private boolean flush() {
+            if (buffer.length() == 0) {
+                return true;
+            }
+            if (flushTimer != null) {
+                flushTimer.cancel(false);
+                flushTimer = null;
+            }
+            int chars = buffer.length();
+            boolean sent = connectionManager.sendMessage(userId, "stream", buffer.toString());
+            buffer.setLength(0);
+            bufferBytes = 0;
+            lastFlush = System.currentTimeMillis();
+            flushes++;
+            if (sent) {
+                emittedChunks.incrementAndGet();
+                emittedChars.addAndGet(chars);
+            }
+            return sent;
+        }
+
+        private void cancel() {
+            if (finish(cancelledStreams)) {
+                ScheduledFuture<?> current = future;
+                if (current != null) {
+                    current.cancel(false);
+                }
+                log.info("Stream output cancelled: userId={}, streamId={}", userId, streamId);
+            }
+        }
+
+        private synchronized boolean finish(AtomicLong counter) {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            activeStreams.remove(streamId);
+            activeCount.decrementAndGet();
+            counter.incrementAndGet();
+            return true;
+        }
+    }
+}
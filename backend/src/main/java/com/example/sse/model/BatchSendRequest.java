@@ -0,0 +1,24 @@
+package com.example.sse.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量发送请求
+ * 两种用法：userIds + message 给多个用户发送同一内容；messages 给每个用户发送不同内容
+ */
+@Data
+public class BatchSendRequest {
+    private List<String> userIds;     // 接收同一内容的用户列表
+    private String eventName;         // 事件名称
+    private String message;           // 消息内容
+    private List<Item> messages;      // 每个用户单独的消息
+
+    @Data
+    public static class Item {
+        private String userId;        // 用户 ID
+        private String eventName;     // 事件名称
+        private String message;       // 消息内容
+    }
+}
@@ -8,9 +8,51 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class ConnectionInfo {
+
+    private static final char SEPARATOR = '|';   // 紧凑编码的字段分隔符
+
     private String userId;        // 用户 ID
     private String sessionId;     // 会话 ID
     private String nodeId;       // 节点 ID
     private Long connectTime;     // 连接时间戳
     private Long lastHeartbeat;  // 最后心跳时间戳
+
+    /**
+     * 紧凑编码，作为 Redis Hash 的值：nodeId|connectTime
+     * userId 和 sessionId 已经是 Key 和 Field，不重复存储；心跳只续期 TTL，不写回记录
+     * @return 编码后的字符串
+     */
+    public String encode() {
+        return nodeId + SEPARATOR + connectTime;
+    }
+
+    /**
+     * 解码紧凑编码的连接信息
+     * @param userId 用户 ID（Key）
+     * @param sessionId 会话 ID（Field）
+     * @param value 编码后的字符串
+     * @return 连接信息，格式不正确返回 null
+     */
+    public static ConnectionInfo decode(String userId, String sessionId, String value) {
+        int index = value.lastIndexOf(SEPARATOR);
+        if (index < 0) {
+            return null;
+        }
+        try {
+            long connectTime = Long.parseLong(value.substring(index + 1));
+            return new ConnectionInfo(userId, sessionId, value.substring(0, index), connectTime, connectTime);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 只取出节点 ID，路由查询不需要完整解码
+     * @param value 编码后的字符串
+     * @return 节点 ID
+     */
+    public static String nodeIdOf(String value) {
+        int index = value.lastIndexOf(SEPARATOR);
+        return index < 0 ? value : value.substring(0, index);
+    }
 }
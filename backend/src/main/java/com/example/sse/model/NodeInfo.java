@@ -8,9 +8,42 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class NodeInfo {
+
+    private static final String SEPARATOR = "|";   // 紧凑编码的字段分隔符
+
     private String nodeId;        // 节点唯一标识
     private String host;         // 节点主机地址
     private int port;            // 节点端口
     private Long lastHeartbeat;   // 最后心跳时间戳
     private boolean healthy;       // 节点是否健康
+
+    /**
+     * 紧凑编码，作为 Redis 字符串的值：host|port|lastHeartbeat
+     * nodeId 已经在 Key 中；healthy 由心跳时间推算，不存储
+     * @return 编码后的字符串
+     */
+    public String encode() {
+        return host + SEPARATOR + port + SEPARATOR + lastHeartbeat;
+    }
+
+    /**
+     * 解码紧凑编码的节点信息
+     * @param nodeId 节点 ID（Key）
+     * @param value 编码后的字符串，可以为 null
+     * @return 节点信息，不存在或格式不正确返回 null
+     */
+    public static NodeInfo decode(String nodeId, String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.split("\\|", 3);
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new NodeInfo(nodeId, parts[0], Integer.parseInt(parts[1]), Long.parseLong(parts[2]), true);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 }
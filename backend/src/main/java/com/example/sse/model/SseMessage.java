@@ -4,12 +4,51 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 public class SseMessage {
+
     private String userId;
     private String eventName;
     private String data;
     private Long timestamp;
+    private String topic;         // 主题，非空时投递给该主题在目标节点上的所有订阅者
+    private List<SseMessage> batch;   // 批量消息，非空时逐条投递给目标节点上的用户
+    private boolean placed;       // 按放置环路由到归属节点，用户不在该节点时由它查询注册中心转发一次
+    private String eventId;       // 接收发送请求的节点在回放日志中分配的事件 ID，为空时事件不可回放
+    private Command command;      // 控制命令，非空时消息不是事件，由目标节点执行，data 为命令参数
+
+    /**
+     * 发往用户所在节点的控制命令
+     * 命令与事件名称分开传递，客户端通过发送接口指定的事件名称不会被当作命令执行
+     */
+    public enum Command {
+        START_STREAM("start-stream"),             // 开始流式输出，data 为输出文本
+        CANCEL_STREAM("cancel-stream"),           // 取消用户正在进行的流式输出
+        SUBSCRIBE_TOPIC("subscribe-topic"),       // 用户订阅主题，data 为主题
+        UNSUBSCRIBE_TOPIC("unsubscribe-topic");   // 用户取消订阅主题，data 为主题
+
+        private final String reservedName;        // 保留的事件名称，发送接口拒绝以它作为事件名称
+
+        Command(String reservedName) {
+            this.reservedName = reservedName;
+        }
+
+        /**
+         * 事件名称是否为命令保留名称
+         * @param eventName 事件名称，可为空
+         * @return 是否保留
+         */
+        public static boolean isReserved(String eventName) {
+            for (Command command : values()) {
+                if (command.reservedName.equals(eventName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
@@ -2,113 +2,480 @@ package com.example.sse.registry;
 
 import com.example.sse.health.NodeHealthMonitor;
 import com.example.sse.model.ConnectionInfo;
+import com.example.sse.model.NodeInfo;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * 连接注册中心
+ * 注册、注销和路由查询都通过 Lua 脚本（resources/scripts）在 Redis 中一次往返原子完成：
+ * - register.lua：写入会话记录、续期、加入节点用户集合并发布路由失效
+ * - unregister.lua：只删除仍属于当前节点的会话记录（比较后删除）
+ * - lookup.lua：读取会话并按 NodeHealthMonitor 给出的健康节点集合筛选，只读，不健康节点上的会话由故障清理删除
+ */
 @Slf4j
 @Service
 public class ConnectionRegistry {
 
-    private static final String CONNECTION_KEY_PREFIX = "sse:connection:";   // 连接信息 Key 前缀
-    private static final String NODE_KEY_PREFIX = "sse:node:";            // 用户节点映射 Key 前缀
-    private static final long CONNECTION_TTL_MINUTES = 30;               // 连接过期时间（分钟）
+    public static final String CONNECTION_KEY_PREFIX = "sse:conn:";       // 用户会话 Key 前缀（Hash: sessionId -> nodeId|connectTime）
+    public static final String NODE_MEMBERS_KEY_PREFIX = "sse:members:";   // 节点用户集合 Key 前缀
+    private static final String ROUTE_INVALIDATE_CHANNEL = "sse:route:invalidate";   // 路由缓存失效通知频道
+    static final long CONNECTION_TTL_MINUTES = 30;               // 连接过期时间（分钟）
+    private static final int SCRIPT_BATCH_SIZE = 500;            // 单次脚本调用处理的最大会话或用户数，避免长时间阻塞 Redis
 
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private StringRedisTemplate stringRedisTemplate;   // 会话记录使用紧凑的字符串编码
 
     @Autowired
-    private NodeHealthMonitor nodeHealthMonitor;   // 节点健康监控器
+    private HeartbeatCoalescer heartbeatCoalescer;   // 心跳合并器
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;   // Redis 订阅容器
+
+    @Autowired
+    private NodeHealthMonitor nodeHealthMonitor;   // 节点健康监控器，路由查询按其成员表判断节点健康
+
+    @Autowired
+    private MeterRegistry meterRegistry;         // 指标注册表
 
     @Value("${node.id}")
     private String currentNodeId;        // 当前节点 ID
 
+    @Value("${sse.registry.route-cache.max-size:10000}")
+    private int routeCacheMaxSize;       // 路由缓存最大条目数
+
+    @Value("${sse.registry.route-cache.ttl:5s}")
+    private Duration routeCacheTtl;      // 路由缓存条目存活时间
+
+    @Value("${sse.registry.register-flush-interval:5}")
+    private long registerFlushInterval;  // 会话注册批量写入间隔（毫秒），0 表示每次注册同步写入
+
+    @Value("${sse.registry.register-batch-size:500}")
+    private int registerBatchSize;       // 待写入注册达到该数量时立即写入
+
+    private final Map<String, Set<String>> localSessions = new ConcurrentHashMap<>();   // 注册在当前节点的 userId -> sessionIds
+    private final Map<String, PendingRegistration> pendingRegistrations = new ConcurrentHashMap<>();   // 待写入 Redis 的注册 sessionId -> 注册
+    private final Object registrationWriteLock = new Object();   // 写入注册期间持有，注销据此判断注册是否已落到 Redis
+    private final AtomicBoolean flushRequested = new AtomicBoolean();   // 是否已提交提前写入任务
+    private ScheduledExecutorService registrationFlusher;   // 批量写入注册的线程
+    private RouteCache routeCache;       // userId -> nodeIds 路由近缓存
+    private RedisScript<Long> registerScript;     // 批量注册脚本
+    private RedisScript<Long> unregisterScript;   // 比较后删除脚本
+    @SuppressWarnings("rawtypes")
+    private RedisScript<List> lookupScript;       // 带健康检查的路由查询脚本
+    private Timer registerTimer;         // 注册会话 Redis 耗时
+    private Timer unregisterTimer;       // 注销会话 Redis 耗时
+    private Timer bulkUnregisterTimer;   // 节点排空时批量注销 Redis 耗时
+    private Timer lookupTimer;           // 单用户路由查询 Redis 耗时（缓存未命中）
+    private Timer batchLookupTimer;      // 批量路由查询 Redis 耗时（缓存未命中部分）
+
+    @PostConstruct
+    public void init() {
+        routeCache = new RouteCache(routeCacheMaxSize, routeCacheTtl.toMillis());
+        registerScript = RedisScript.of(new ClassPathResource("scripts/register.lua"), Long.class);
+        unregisterScript = RedisScript.of(new ClassPathResource("scripts/unregister.lua"), Long.class);
+        lookupScript = RedisScript.of(new ClassPathResource("scripts/lookup.lua"), List.class);
+        registerTimer = registryTimer("register");
+        unregisterTimer = registryTimer("unregister");
+        bulkUnregisterTimer = registryTimer("unregister-bulk");
+        lookupTimer = registryTimer("lookup");
+        batchLookupTimer = registryTimer("lookup-batch");
+
+        // 任意节点注册/注销用户会话时，清除本地缓存的路由
+        listenerContainer.addMessageListener((message, pattern) ->
+            routeCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+            new ChannelTopic(ROUTE_INVALIDATE_CHANNEL));
+
+        if (registerFlushInterval > 0) {
+            registrationFlusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "sse-registry-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            registrationFlusher.scheduleWithFixedDelay(this::flushRegistrations,
+                registerFlushInterval, registerFlushInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (registrationFlusher != null) {
+            registrationFlusher.shutdown();
+            flushRegistrations();   // 写入剩余的注册
+        }
+    }
+
     /**
-     * 注册用户连接信息到 Redis
+     * 注册用户会话到 Redis
+     * 同一用户可以有多个会话，分布在不同节点；每个用户一个 Hash
+     * 本地立即生效；Redis 写入先进入待写入队列，每 register-flush-interval 毫秒或攒够 register-batch-size 条时
+     * 通过一次脚本调用与路由失效通知一起写入，连接激增时 Redis 往返次数与连接数无关
      * @param userId 用户 ID
      * @param sessionId 会话 ID
      */
     public void register(String userId, String sessionId) {
-        ConnectionInfo info = new ConnectionInfo(
-            userId,
-            sessionId,
-            currentNodeId,
-            System.currentTimeMillis(),
-            System.currentTimeMillis()
-        );
+        long now = System.currentTimeMillis();
+        PendingRegistration registration = new PendingRegistration(userId, sessionId,
+            new ConnectionInfo(userId, sessionId, currentNodeId, now, now).encode());
 
-        String connectionKey = CONNECTION_KEY_PREFIX + userId;
-        String nodeKey = NODE_KEY_PREFIX + userId;
+        localSessions.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        routeCache.invalidate(userId);
 
-        // 保存连接信息和节点映射，设置 30 分钟过期时间
-        redisTemplate.opsForValue().set(connectionKey, info, CONNECTION_TTL_MINUTES, TimeUnit.MINUTES);
-        redisTemplate.opsForValue().set(nodeKey, currentNodeId, CONNECTION_TTL_MINUTES, TimeUnit.MINUTES);
+        if (registrationFlusher == null) {
+            writeRegistrations(Collections.singletonList(registration));
+        } else {
+            pendingRegistrations.put(sessionId, registration);
+            if (pendingRegistrations.size() >= registerBatchSize && flushRequested.compareAndSet(false, true)) {
+                try {
+                    registrationFlusher.execute(this::flushRegistrations);
+                } catch (RejectedExecutionException e) {
+                    flushRequested.set(false);   // 关闭中，由 shutdown 写入
+                }
+            }
+        }
 
         log.info("Registered connection: userId={}, sessionId={}, nodeId={}", userId, sessionId, currentNodeId);
     }
 
     /**
-     * 获取用户连接信息
+     * 写入所有待写入的注册
+     * 持有写入锁直到 pipeline 完成，注销时据此判断注册是否已经落到 Redis
+     */
+    private void flushRegistrations() {
+        flushRequested.set(false);
+        if (pendingRegistrations.isEmpty()) {
+            return;
+        }
+        synchronized (registrationWriteLock) {
+            List<PendingRegistration> batch = new ArrayList<>(pendingRegistrations.size());
+            for (String sessionId : new ArrayList<>(pendingRegistrations.keySet())) {
+                PendingRegistration registration = pendingRegistrations.remove(sessionId);
+                if (registration != null) {
+                    batch.add(registration);
+                }
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                writeRegistrations(batch);
+                log.debug("Flushed {} registrations", batch.size());
+            } catch (Exception e) {
+                log.error("Failed to flush {} registrations, retrying", batch.size(), e);
+                for (PendingRegistration registration : batch) {
+                    pendingRegistrations.putIfAbsent(registration.sessionId, registration);   // 下个周期重试
+                }
+            }
+        }
+    }
+
+    /**
+     * 通过注册脚本写入一批注册，并通知所有节点这些用户的路由已变化
+     * 每次脚本调用最多 SCRIPT_BATCH_SIZE 条；失败后整批重试，重复写入相同的记录没有副作用
+     * @param registrations 注册列表
+     */
+    private void writeRegistrations(List<PendingRegistration> registrations) {
+        for (int from = 0; from < registrations.size(); from += SCRIPT_BATCH_SIZE) {
+            List<PendingRegistration> chunk = registrations.subList(from, Math.min(from + SCRIPT_BATCH_SIZE, registrations.size()));
+            List<String> keys = new ArrayList<>(chunk.size() + 1);
+            List<String> args = new ArrayList<>(chunk.size() * 3 + 2);
+            keys.add(NODE_MEMBERS_KEY_PREFIX + currentNodeId);
+            args.add(String.valueOf(TimeUnit.MINUTES.toSeconds(CONNECTION_TTL_MINUTES)));
+            args.add(ROUTE_INVALIDATE_CHANNEL);
+            for (PendingRegistration registration : chunk) {
+                keys.add(CONNECTION_KEY_PREFIX + registration.userId);
+                args.add(registration.userId);
+                args.add(registration.sessionId);
+                args.add(registration.value);
+            }
+            registerTimer.record(() -> stringRedisTemplate.execute(registerScript, keys, args.toArray()));
+        }
+    }
+
+    /**
+     * 获取用户所有会话的连接信息
      * @param userId 用户 ID
-     * @return 连接信息
+     * @return 连接信息列表
      */
-    public ConnectionInfo getConnectionInfo(String userId) {
-        String key = CONNECTION_KEY_PREFIX + userId;
-        return (ConnectionInfo) redisTemplate.opsForValue().get(key);
+    public List<ConnectionInfo> getConnectionInfos(String userId) {
+        List<ConnectionInfo> infos = new ArrayList<>();
+        Map<Object, Object> sessions = stringRedisTemplate.opsForHash().entries(CONNECTION_KEY_PREFIX + userId);
+        for (Map.Entry<Object, Object> entry : sessions.entrySet()) {
+            ConnectionInfo info = ConnectionInfo.decode(userId, (String) entry.getKey(), (String) entry.getValue());
+            if (info != null) {
+                infos.add(info);
+            }
+        }
+        return infos;
     }
 
     /**
      * 获取用户所在节点 ID
-     * 如果节点不健康，自动清理连接信息
+     * 用户在当前节点有会话时直接返回当前节点，否则返回任一健康节点
      * @param userId 用户 ID
-     * @return 节点 ID，如果节点不健康返回 null
+     * @return 节点 ID，如果用户未连接返回 null
      */
     public String getNodeId(String userId) {
-        String key = NODE_KEY_PREFIX + userId;
-        String nodeId = (String) redisTemplate.opsForValue().get(key);
-        
-        // 检查节点健康状态
-        if (nodeId != null && !nodeHealthMonitor.isNodeHealthy(nodeId)) {
-            log.warn("Node {} is unhealthy, removing connection for userId: {}", nodeId, userId);
-            unregister(userId);
-            return null;
+        if (hasLocalSession(userId)) {
+            return currentNodeId;
+        }
+        Set<String> nodeIds = getNodeIds(userId);
+        return nodeIds.isEmpty() ? null : nodeIds.iterator().next();
+    }
+
+    /**
+     * 获取用户所有会话所在的节点 ID
+     * 优先查询路由近缓存，未命中时才通过查询脚本访问 Redis
+     * 不健康节点上的会话会在同一次脚本调用中被清理
+     * @param userId 用户 ID
+     * @return 节点 ID 集合，用户未连接返回空集合
+     */
+    public Set<String> getNodeIds(String userId) {
+        Set<String> cachedNodeIds = routeCache.get(userId);
+        if (cachedNodeIds != null) {
+            return cachedNodeIds;
+        }
+
+        List<String> users = Collections.singletonList(userId);
+        List<?> items = lookupTimer.record(() -> lookup(users));
+        return resolveNodeIds(userId, (List<?>) items.get(0));
+    }
+
+    /**
+     * 批量获取多个用户所在的节点 ID
+     * 缓存未命中的用户通过查询脚本读取，每 SCRIPT_BATCH_SIZE 个用户一次往返
+     * @param userIds 用户 ID 集合
+     * @return userId -> 节点 ID 集合，未连接的用户对应空集合
+     */
+    public Map<String, Set<String>> getNodeIds(Collection<String> userIds) {
+        Map<String, Set<String>> result = new LinkedHashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String userId : userIds) {
+            if (result.containsKey(userId)) {
+                continue;
+            }
+            Set<String> cachedNodeIds = routeCache.get(userId);
+            if (cachedNodeIds != null) {
+                result.put(userId, cachedNodeIds);
+            } else {
+                result.put(userId, Collections.emptySet());
+                misses.add(userId);
+            }
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+
+        for (int from = 0; from < misses.size(); from += SCRIPT_BATCH_SIZE) {
+            List<String> chunk = misses.subList(from, Math.min(from + SCRIPT_BATCH_SIZE, misses.size()));
+            List<?> items = batchLookupTimer.record(() -> lookup(chunk));
+            for (int i = 0; i < chunk.size(); i++) {
+                result.put(chunk.get(i), resolveNodeIds(chunk.get(i), (List<?>) items.get(i)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 执行查询脚本
+     * 健康节点集合取自 NodeHealthMonitor 的本地成员表（含当前节点），与放置、主题路由使用同一份健康视图
+     * @param userIds 用户 ID 列表
+     * @return 与 userIds 对应的查询结果，每项为 [跳过的会话数, 健康节点 ID...]
+     */
+    private List<?> lookup(List<String> userIds) {
+        List<NodeInfo> healthyNodes = nodeHealthMonitor.getHealthyNodes();
+        List<String> keys = new ArrayList<>(userIds.size());
+        List<String> args = new ArrayList<>(healthyNodes.size() + 3);
+        args.add(String.valueOf(System.currentTimeMillis()));
+        args.add(String.valueOf(nodeHealthMonitor.getNodeTimeout()));
+        for (String userId : userIds) {
+            keys.add(CONNECTION_KEY_PREFIX + userId);
+        }
+        args.add(currentNodeId);
+        for (NodeInfo node : healthyNodes) {
+            args.add(node.getNodeId());
+        }
+        return stringRedisTemplate.execute(lookupScript, keys, args.toArray());
+    }
+
+    /**
+     * 解析查询脚本的结果，并写入路由缓存
+     * 跳过了不健康节点上的会话时不缓存：本地成员表可能滞后，下次查询重新判断
+     * @param userId 用户 ID
+     * @param item 查询结果：[跳过的会话数, 健康节点 ID...]
+     * @return 节点 ID 集合
+     */
+    private Set<String> resolveNodeIds(String userId, List<?> item) {
+        long skipped = ((Number) item.get(0)).longValue();
+        if (skipped > 0) {
+            log.debug("Skipped {} sessions on unhealthy nodes for userId: {}", skipped, userId);
+        }
+        if (item.size() == 1) {
+            return Collections.emptySet();
+        }
+        Set<String> nodeIds = new LinkedHashSet<>();
+        for (int i = 1; i < item.size(); i++) {
+            nodeIds.add((String) item.get(i));
         }
-        
-        return nodeId;
+        Set<String> result = Collections.unmodifiableSet(nodeIds);
+        if (skipped == 0) {
+            routeCache.put(userId, result);
+        }
+        return result;
     }
 
     /**
      * 更新用户连接心跳
+     * 只标记为待续期，由 HeartbeatCoalescer 定时批量延长过期时间
      * @param userId 用户 ID
      */
     public void updateHeartbeat(String userId) {
-        String connectionKey = CONNECTION_KEY_PREFIX + userId;
-        ConnectionInfo info = (ConnectionInfo) redisTemplate.opsForValue().get(connectionKey);
-        if (info != null) {
-            // 更新心跳时间并延长过期时间
-            info.setLastHeartbeat(System.currentTimeMillis());
-            redisTemplate.opsForValue().set(connectionKey, info, CONNECTION_TTL_MINUTES, TimeUnit.MINUTES);
-            redisTemplate.opsForValue().set(NODE_KEY_PREFIX + userId, currentNodeId, CONNECTION_TTL_MINUTES, TimeUnit.MINUTES);
-        }
+        heartbeatCoalescer.markDirty(userId);
     }
 
     /**
-     * 注销用户连接
+     * 注销用户会话
+     * 只删除记录中节点仍为当前节点的会话，删除与路由失效通知一次往返完成
      * @param userId 用户 ID
+     * @param sessionId 会话 ID
      */
-    public void unregister(String userId) {
-        String connectionKey = CONNECTION_KEY_PREFIX + userId;
-        String nodeKey = NODE_KEY_PREFIX + userId;
+    public void unregister(String userId, String sessionId) {
+        Set<String> remaining = localSessions.computeIfPresent(userId, (k, sessions) -> {
+            sessions.remove(sessionId);
+            return sessions.isEmpty() ? null : sessions;
+        });
+
+        // 注册还未写入 Redis 时直接丢弃，不需要删除；正在写入时等待写入完成，避免删除先于写入执行
+        boolean neverWritten;
+        synchronized (registrationWriteLock) {
+            neverWritten = pendingRegistrations.remove(sessionId) != null;
+        }
+        if (neverWritten) {
+            if (remaining == null) {
+                heartbeatCoalescer.remove(userId);
+            }
+            routeCache.invalidate(userId);
+            log.info("Unregistered pending connection: userId={}, sessionId={}, nodeId={}", userId, sessionId, currentNodeId);
+            return;
+        }
+
+        // 删除会话记录（最后一个字段删除后 Redis 会自动删除 Hash），当前节点已没有该用户的会话时移出节点用户集合
+        unregisterTimer.record(() -> deleteSessions(Collections.singletonMap(userId, Collections.singletonList(sessionId)),
+            remaining == null ? Collections.singleton(userId) : Collections.emptySet(), false));
+        if (remaining == null) {
+            heartbeatCoalescer.remove(userId);
+        }
 
-        // 删除连接信息和节点映射
-        redisTemplate.delete(connectionKey);
-        redisTemplate.delete(nodeKey);
+        routeCache.invalidate(userId);
 
-        log.info("Unregistered connection: userId={}, nodeId={}", userId, currentNodeId);
+        log.info("Unregistered connection: userId={}, sessionId={}, nodeId={}", userId, sessionId, currentNodeId);
+    }
+
+    /**
+     * 批量注销一批会话，回收写出失败的死连接时使用
+     * @param sessionsByUser userId -> 会话 ID 列表
+     * @return 注销的会话数
+     */
+    public int unregisterAll(Map<String, ? extends Collection<String>> sessionsByUser) {
+        Map<String, List<String>> written = new HashMap<>();   // 已写入 Redis、需要删除的会话
+        synchronized (registrationWriteLock) {
+            sessionsByUser.forEach((userId, sessionIds) -> {
+                for (String sessionId : sessionIds) {
+                    if (pendingRegistrations.remove(sessionId) == null) {
+                        written.computeIfAbsent(userId, k -> new ArrayList<>()).add(sessionId);
+                    }
+                }
+            });
+        }
+
+        Set<String> emptied = new HashSet<>();   // 当前节点已没有会话的用户
+        int count = 0;
+        for (Map.Entry<String, ? extends Collection<String>> entry : sessionsByUser.entrySet()) {
+            Collection<String> sessionIds = entry.getValue();
+            Set<String> remaining = localSessions.computeIfPresent(entry.getKey(), (k, sessions) -> {
+                sessions.removeAll(sessionIds);
+                return sessions.isEmpty() ? null : sessions;
+            });
+            if (remaining == null) {
+                emptied.add(entry.getKey());
+            }
+            count += sessionIds.size();
+        }
+
+        if (!written.isEmpty()) {
+            bulkUnregisterTimer.record(() -> deleteSessions(written, emptied, false));
+        }
+
+        for (String userId : sessionsByUser.keySet()) {
+            routeCache.invalidate(userId);
+            if (emptied.contains(userId)) {
+                heartbeatCoalescer.remove(userId);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 批量注销当前节点登记的所有会话，并通知所有节点这些用户的路由已变化
+     * 节点排空下线时使用，代替逐个会话注销
+     * @return 注销的会话数
+     */
+    public int unregisterAllLocal() {
+        synchronized (registrationWriteLock) {
+            pendingRegistrations.clear();   // 尚未写入的注册不需要删除
+        }
+        Map<String, Set<String>> sessions = new HashMap<>();
+        for (String userId : new ArrayList<>(localSessions.keySet())) {
+            Set<String> removed = localSessions.remove(userId);
+            if (removed != null && !removed.isEmpty()) {
+                sessions.put(userId, removed);
+            }
+        }
+        if (sessions.isEmpty()) {
+            return 0;
+        }
+
+        bulkUnregisterTimer.record(() -> deleteSessions(sessions, sessions.keySet(), true));
+
+        int count = 0;
+        for (Map.Entry<String, Set<String>> entry : sessions.entrySet()) {
+            heartbeatCoalescer.remove(entry.getKey());
+            routeCache.invalidate(entry.getKey());
+            count += entry.getValue().size();
+        }
+        log.info("Bulk unregistered {} sessions of {} users on node {}", count, sessions.size(), currentNodeId);
+        return count;
     }
 
     /**
@@ -117,7 +484,105 @@ public class ConnectionRegistry {
      * @return 是否在当前节点
      */
     public boolean isLocalNode(String userId) {
-        String nodeId = getNodeId(userId);
+        return hasLocalSession(userId);
+    }
+
+    /**
+     * 检查节点 ID 是否为当前节点
+     * 已查到 nodeId 时使用，避免重复查询
+     * @param nodeId 节点 ID
+     * @return 是否为当前节点
+     */
+    public boolean isCurrentNode(String nodeId) {
         return currentNodeId.equals(nodeId);
     }
+
+    /**
+     * 获取当前节点 ID
+     * @return 节点 ID
+     */
+    public String getCurrentNodeId() {
+        return currentNodeId;
+    }
+
+    /**
+     * 获取路由缓存条目数
+     * @return 条目数
+     */
+    public int getRouteCacheSize() {
+        return routeCache.size();
+    }
+
+    private Timer registryTimer(String operation) {
+        return Timer.builder("sse.registry.redis")
+            .description("Redis time spent by connection registry operations")
+            .tag("operation", operation)
+            .register(meterRegistry);
+    }
+
+    /**
+     * 获取待写入 Redis 的注册数
+     * @return 注册数
+     */
+    public int getPendingRegistrations() {
+        return pendingRegistrations.size();
+    }
+
+    private boolean hasLocalSession(String userId) {
+        return localSessions.containsKey(userId);
+    }
+
+    /**
+     * 通过比较后删除脚本删除当前节点的会话记录，并通知所有节点这些用户的路由已变化
+     * 每次脚本调用最多处理约 SCRIPT_BATCH_SIZE 个会话
+     * @param sessionsByUser userId -> 会话 ID 列表
+     * @param emptied 当前节点已没有会话、需要移出节点用户集合的用户
+     * @param dropMembers 是否在最后删除整个节点用户集合
+     * @return 删除的会话数
+     */
+    private long deleteSessions(Map<String, ? extends Collection<String>> sessionsByUser, Set<String> emptied,
+                                boolean dropMembers) {
+        long deleted = 0;
+        Iterator<? extends Map.Entry<String, ? extends Collection<String>>> iterator = sessionsByUser.entrySet().iterator();
+        while (iterator.hasNext()) {
+            List<String> keys = new ArrayList<>();
+            List<String> args = new ArrayList<>();
+            keys.add(NODE_MEMBERS_KEY_PREFIX + currentNodeId);
+            args.add(currentNodeId);
+            args.add(ROUTE_INVALIDATE_CHANNEL);
+            args.add("0");
+            int sessions = 0;
+            while (iterator.hasNext() && sessions < SCRIPT_BATCH_SIZE) {
+                Map.Entry<String, ? extends Collection<String>> entry = iterator.next();
+                keys.add(CONNECTION_KEY_PREFIX + entry.getKey());
+                args.add(entry.getKey());
+                args.add(emptied.contains(entry.getKey()) ? "1" : "0");
+                args.add(String.valueOf(entry.getValue().size()));
+                args.addAll(entry.getValue());
+                sessions += entry.getValue().size();
+            }
+            if (dropMembers && !iterator.hasNext()) {
+                args.set(2, "1");
+            }
+            Long result = stringRedisTemplate.execute(unregisterScript, keys, args.toArray());
+            deleted += result != null ? result : 0;
+        }
+        return deleted;
+    }
+
+    /**
+     * 待写入 Redis 的会话注册
+     */
+    private static final class PendingRegistration {
+
+        private final String userId;      // 用户 ID
+        private final String sessionId;   // 会话 ID
+        private final String value;       // 编码后的会话记录
+
+        private PendingRegistration(String userId, String sessionId, String value) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.value = value;
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package com.example.sse.registry;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 心跳合并器
+ * 发送消息时只标记连接为脏，定时将脏连接的 TTL 通过一次 pipeline 批量续期
+ * Redis 操作量只与活跃连接数相关，与消息速率无关
+ */
+@Slf4j
+@Service
+public class HeartbeatCoalescer {
+
+    private static final long CONNECTION_TTL_MILLIS = TimeUnit.MINUTES.toMillis(ConnectionRegistry.CONNECTION_TTL_MINUTES);
+
+    private final Set<String> dirtyUsers = ConcurrentHashMap.newKeySet();   // 待续期的用户
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;   // 会话 Key 由 ConnectionRegistry 以字符串编码写入
+
+    /**
+     * 标记用户连接需要续期
+     * @param userId 用户 ID
+     */
+    public void markDirty(String userId) {
+        dirtyUsers.add(userId);
+    }
+
+    /**
+     * 取消用户连接的续期（连接已注销）
+     * @param userId 用户 ID
+     */
+    public void remove(String userId) {
+        dirtyUsers.remove(userId);
+    }
+
+    /**
+     * 定时批量续期
+     * 使用 PEXPIRE 直接延长过期时间，无需重新序列化连接信息
+     */
+    @Scheduled(fixedDelayString = "${sse.registry.heartbeat-flush-interval:10000}")
+    public void flush() {
+        if (dirtyUsers.isEmpty()) {
+            return;
+        }
+
+        List<String> batch = new ArrayList<>();
+        Iterator<String> iterator = dirtyUsers.iterator();
+        while (iterator.hasNext()) {
+            batch.add(iterator.next());
+            iterator.remove();
+        }
+
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (String userId : batch) {
+                    stringConnection.pExpire(ConnectionRegistry.CONNECTION_KEY_PREFIX + userId, CONNECTION_TTL_MILLIS);
+                }
+                return null;
+            });
+            log.debug("Heartbeat flushed for {} connections", batch.size());
+        } catch (Exception e) {
+            log.error("Failed to flush heartbeat for {} connections", batch.size(), e);
+            dirtyUsers.addAll(batch);   // 下个周期重试
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.sse.registry;
+
+import com.example.sse.health.NodeHealthMonitor;
+import com.example.sse.model.NodeInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一致性哈希放置环
+ * 由健康节点构建，每个节点对应若干虚拟节点，每个 userId 顺时针映射到一个归属节点
+ * 节点加入或离开时只有约 1/N 的用户改变归属
+ *
+ * 放置模式：
+ * - off：不使用，任意节点都可以接受任意用户（默认）
+ * - hint：/connect 照常建立连接，通过响应头告知客户端归属节点
+ * - redirect：/connect 重定向到归属节点；发送方直接计算归属节点，不再查询注册中心
+ */
+@Slf4j
+@Service
+public class PlacementRing {
+
+    public static final String HOME_PARAM = "home";                  // 重定向后带上的归属节点参数，收到后不再重定向
+    public static final String HOME_NODE_HEADER = "X-SSE-Home-Node"; // 提示模式：归属节点 ID
+    public static final String HOME_URL_HEADER = "X-SSE-Home-Url";   // 提示模式：归属节点上的连接地址
+
+    /**
+     * 放置模式
+     */
+    public enum Mode {
+        OFF,        // 不使用放置环
+        HINT,       // 只提示归属节点
+        REDIRECT    // 重定向到归属节点，发送方按放置环路由
+    }
+
+    @Autowired
+    private NodeHealthMonitor nodeHealthMonitor;   // 节点健康监控器
+
+    @Value("${node.id}")
+    private String currentNodeId;        // 当前节点 ID
+
+    @Value("${sse.placement.mode:off}")
+    private Mode mode;                   // 放置模式
+
+    @Value("${sse.placement.virtual-nodes:160}")
+    private int virtualNodes;            // 每个节点的虚拟节点数，越多分布越均匀
+
+    private volatile Ring ring = Ring.EMPTY;   // 当前放置环，重建时整体替换
+
+    @PostConstruct
+    public void init() {
+        refresh();
+        nodeHealthMonitor.addMembershipListener(this::refresh);   // 成员变化时立即重建
+    }
+
+    /**
+     * 按健康节点重建放置环，成员变化时立即执行，定时执行兜底心跳超时等情况
+     * 节点集合（含地址）不变时保留原环
+     */
+    @Scheduled(fixedDelayString = "${sse.placement.refresh-interval:5000}")
+    public synchronized void refresh() {
+        if (mode == Mode.OFF) {
+            return;
+        }
+        try {
+            List<NodeInfo> nodes = new ArrayList<>(nodeHealthMonitor.getHealthyNodes());
+            nodes.sort(Comparator.comparing(NodeInfo::getNodeId));
+            Ring current = ring;
+            if (current.sameMembers(nodes)) {
+                return;
+            }
+            Ring rebuilt = Ring.build(nodes, virtualNodes);
+            ring = rebuilt;
+            log.info("Placement ring rebuilt: nodes={}, virtualNodes={}, moved={}%",
+                rebuilt.nodeIds(), virtualNodes, Math.round(current.movedFraction(rebuilt) * 100));
+        } catch (Exception e) {
+            log.error("Failed to rebuild placement ring", e);
+        }
+    }
+
+    /**
+     * 计算用户的归属节点
+     * @param userId 用户 ID
+     * @return 归属节点，未开启或环为空时返回 null
+     */
+    public NodeInfo locate(String userId) {
+        return mode == Mode.OFF ? null : ring.locate(userId);
+    }
+
+    /**
+     * 计算用户的归属节点，只在归属节点不是当前节点时返回
+     * @param userId 用户 ID
+     * @return 远程归属节点，归属当前节点或无法计算时返回 null
+     */
+    public NodeInfo remoteHome(String userId) {
+        NodeInfo home = locate(userId);
+        return home == null || currentNodeId.equals(home.getNodeId()) ? null : home;
+    }
+
+    /**
+     * 发送方是否按放置环路由
+     * 只有重定向模式下用户才会连接到归属节点
+     * @return 是否按放置环路由
+     */
+    public boolean isRouting() {
+        return mode == Mode.REDIRECT;
+    }
+
+    /**
+     * 获取放置模式
+     * @return 放置模式
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * 获取环上的节点数
+     * @return 节点数
+     */
+    public int getNodeCount() {
+        return ring.nodes.size();
+    }
+
+    /**
+     * 不可变的哈希环：按哈希值排序的虚拟节点及其所属节点
+     */
+    static final class Ring {
+
+        static final Ring EMPTY = new Ring(new long[0], new NodeInfo[0], new ArrayList<>());
+
+        private static final int SAMPLE_SIZE = 4096;   // 估算迁移比例的抽样数
+
+        private final long[] hashes;        // 虚拟节点哈希，升序
+        private final NodeInfo[] owners;    // 与 hashes 对应的节点
+        private final List<NodeInfo> nodes; // 构建时的节点列表，按 nodeId 排序
+
+        private Ring(long[] hashes, NodeInfo[] owners, List<NodeInfo> nodes) {
+            this.hashes = hashes;
+            this.owners = owners;
+            this.nodes = nodes;
+        }
+
+        static Ring build(List<NodeInfo> nodes, int virtualNodes) {
+            TreeMap<Long, NodeInfo> points = new TreeMap<>();
+            for (NodeInfo node : nodes) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    points.putIfAbsent(hash(node.getNodeId() + "#" + i), node);
+                }
+            }
+            long[] hashes = new long[points.size()];
+            NodeInfo[] owners = new NodeInfo[points.size()];
+            int index = 0;
+            for (Map.Entry<Long, NodeInfo> point : points.entrySet()) {
+                hashes[index] = point.getKey();
+                owners[index] = point.getValue();
+                index++;
+            }
+            return new Ring(hashes, owners, nodes);
+        }
+
+        NodeInfo locate(String key) {
+            if (hashes.length == 0) {
+                return null;
+            }
+            int index = Arrays.binarySearch(hashes, hash(key));
+            if (index < 0) {
+                index = -index - 1;   // 顺时针第一个虚拟节点
+            }
+            return owners[index == hashes.length ? 0 : index];
+        }
+
+        boolean sameMembers(List<NodeInfo> other) {
+            if (nodes.size() != other.size()) {
+                return false;
+            }
+            for (int i = 0; i < nodes.size(); i++) {
+                NodeInfo a = nodes.get(i);
+                NodeInfo b = other.get(i);
+                if (!a.getNodeId().equals(b.getNodeId()) || !a.getHost().equals(b.getHost()) || a.getPort() != b.getPort()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        List<String> nodeIds() {
+            List<String> ids = new ArrayList<>(nodes.size());
+            for (NodeInfo node : nodes) {
+                ids.add(node.getNodeId());
+            }
+            return ids;
+        }
+
+        /**
+         * 抽样估算两个环之间改变归属的 key 比例，只用于日志
+         */
+        double movedFraction(Ring other) {
+            if (hashes.length == 0 || other.hashes.length == 0) {
+                return hashes.length == other.hashes.length ? 0 : 1;
+            }
+            int moved = 0;
+            for (int i = 0; i < SAMPLE_SIZE; i++) {
+                String key = "sample-" + i;
+                if (!locate(key).getNodeId().equals(other.locate(key).getNodeId())) {
+                    moved++;
+                }
+            }
+            return (double) moved / SAMPLE_SIZE;
+        }
+
+        /**
+         * 64 位 FNV-1a 加 MurmurHash3 的 fmix64 终结混合，分布均匀且各节点结果一致
+         */
+        static long hash(String key) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
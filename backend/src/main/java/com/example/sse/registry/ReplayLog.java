@@ -0,0 +1,209 @@
+package com.example.sse.registry;
+
+import com.example.sse.model.SseMessage;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 用户事件回放日志
+ * 每个用户一个定长 Redis Stream，Stream 条目 ID 即 SSE 事件 ID
+ * 事件由接收发送请求的节点写入一次（XADD 由 Redis 分配 ID），ID 随消息路由到用户所在的各个节点：
+ * 同一用户的事件 ID 由 Redis 保证单调递增，不受节点时钟影响；用户多节点在线时不会重复写入，用户暂时离线时事件照常记录
+ */
+@Slf4j
+@Service
+public class ReplayLog {
+
+    static final String REPLAY_KEY_PREFIX = "sse:replay:";   // 回放日志 Key 前缀，Stream 类型
+    private static final String FIELD_EVENT = "e";          // 事件名称字段
+    private static final String FIELD_DATA = "d";           // 事件数据字段
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${sse.replay.enabled:false}")
+    private boolean enabled;             // 是否记录回放日志
+
+    @Value("${sse.replay.max-length:1000}")
+    private long maxLength;              // 每个用户保留的事件数（近似裁剪）
+
+    @Value("${sse.replay.ttl:10m}")
+    private Duration ttl;                // 用户无新事件后日志保留时间
+
+    /**
+     * 是否记录回放日志
+     * @return 是否启用
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 追加事件，一次 pipeline 完成 XADD 与续期
+     * 只由接收发送请求的节点调用一次，不在用户锁内调用
+     * @param userId 用户 ID
+     * @param eventName 事件名称，可为空
+     * @param data 事件数据
+     * @return 事件 ID，未启用或写入失败时返回 null（事件照常发送，只是断线后无法回放）
+     */
+    public String append(String userId, String eventName, String data) {
+        if (!enabled) {
+            return null;
+        }
+        return appendAll(Collections.singletonList(new SseMessage(
+            userId, eventName, data, null, null, null, false, null, null))).get(0);
+    }
+
+    /**
+     * 批量追加事件，所有事件一次 pipeline 写入
+     * @param events 事件列表，使用 userId、eventName、data
+     * @return 与 events 对应的事件 ID，未启用或写入失败的位置为 null
+     */
+    public List<String> appendAll(List<SseMessage> events) {
+        List<String> ids = new ArrayList<>(Collections.nCopies(events.size(), (String) null));
+        if (!enabled || events.isEmpty()) {
+            return ids;
+        }
+        List<Object> results;
+        try {
+            results = writeEvents(events);
+        } catch (RedisPipelineException e) {
+            results = e.getPipelineResult();
+            log.warn("Failed to log some of {} replay events: {}", events.size(), e.getMessage());
+        } catch (Exception e) {
+            log.error("Failed to log {} replay events", events.size(), e);
+            return ids;
+        }
+        // 每个事件对应 XADD、PEXPIRE 两条命令的结果
+        for (int i = 0; i < events.size() && 2 * i < results.size(); i++) {
+            Object result = results.get(2 * i);
+            if (result instanceof RecordId) {
+                ids.set(i, ((RecordId) result).getValue());
+            } else if (result instanceof String) {
+                ids.set(i, (String) result);
+            }
+        }
+        return ids;
+    }
+
+    private List<Object> writeEvents(List<SseMessage> events) {
+        RedisStreamCommands.XAddOptions options = RedisStreamCommands.XAddOptions.maxlen(maxLength).approximateTrimming(true);
+        byte[] eventField = FIELD_EVENT.getBytes(StandardCharsets.UTF_8);
+        byte[] dataField = FIELD_DATA.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SseMessage event : events) {
+                byte[] key = (REPLAY_KEY_PREFIX + event.getUserId()).getBytes(StandardCharsets.UTF_8);
+                Map<byte[], byte[]> fields = new HashMap<>(4);
+                if (event.getEventName() != null) {
+                    fields.put(eventField, event.getEventName().getBytes(StandardCharsets.UTF_8));
+                }
+                fields.put(dataField, event.getData().getBytes(StandardCharsets.UTF_8));
+                connection.streamCommands().xAdd(
+                    StreamRecords.rawBytes(fields).withStreamKey(key).withId(RecordId.autoGenerate()), options);
+                connection.keyCommands().pExpire(key, ttl.toMillis());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 比较两个事件 ID（毫秒时间戳-序号）的先后
+     * @param a 事件 ID
+     * @param b 事件 ID
+     * @return 负数、0、正数分别表示 a 早于、等于、晚于 b
+     */
+    public static int compareIds(String a, String b) {
+        RecordId left = RecordId.of(a);
+        RecordId right = RecordId.of(b);
+        int result = Long.compare(left.getTimestamp(), right.getTimestamp());
+        return result != 0 ? result : Long.compare(left.getSequence(), right.getSequence());
+    }
+
+    /**
+     * 读取指定事件之后的所有事件
+     * 事件在路由到用户所在节点之前已写入，回放不会漏掉已发出的事件
+     * @param userId 用户 ID
+     * @param lastEventId 客户端最后收到的事件 ID
+     * @return 回放结果，lastEventId 无效或未启用时返回空结果；日志中找不到任何记录时标记为已裁剪
+     */
+    public Replay readAfter(String userId, String lastEventId) {
+        if (!enabled) {
+            return Replay.EMPTY;
+        }
+        try {
+            RecordId.of(lastEventId);   // 校验格式
+        } catch (IllegalArgumentException e) {
+            log.debug("Ignoring invalid Last-Event-ID for userId {}: {}", userId, lastEventId);
+            return Replay.EMPTY;
+        }
+
+        // 从 lastEventId（含）开始读，据此判断该事件是否已被裁剪
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(
+            REPLAY_KEY_PREFIX + userId,
+            Range.rightUnbounded(Range.Bound.inclusive(lastEventId)),
+            RedisZSetCommands.Limit.limit().count((int) maxLength + 1));
+        if (records == null || records.isEmpty()) {
+            // 合法的 ID 却读不到任何记录：日志已过期或从未写入，断线期间的事件无从确认，按已裁剪处理
+            return Replay.TRUNCATED;
+        }
+
+        boolean truncated = !lastEventId.equals(records.get(0).getId().getValue());
+        List<Entry> entries = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            String id = record.getId().getValue();
+            if (!id.equals(lastEventId)) {
+                Map<Object, Object> value = record.getValue();
+                entries.add(new Entry(id, (String) value.get(FIELD_EVENT), (String) value.get(FIELD_DATA)));
+            }
+        }
+        return new Replay(entries, truncated);
+    }
+
+    /**
+     * 回放结果
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PACKAGE)
+    public static class Replay {
+
+        static final Replay EMPTY = new Replay(Collections.emptyList(), false);
+        static final Replay TRUNCATED = new Replay(Collections.emptyList(), true);
+
+        private final List<Entry> entries;     // 需要回放的事件，按 ID 升序
+        private final boolean truncated;       // lastEventId 已被裁剪或日志已过期，中间可能有事件丢失
+    }
+
+    /**
+     * 回放日志中的一条事件
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PACKAGE)
+    public static class Entry {
+
+        private final String id;           // 事件 ID
+        private final String eventName;    // 事件名称，可为空
+        private final String data;         // 事件数据
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.sse.registry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * userId -> nodeIds 路由近缓存
+ * 容量有界（LRU 淘汰），每个条目带过期时间
+ * 按 userId 哈希分成多个段，每段是一个独立加锁的 LRU，不同用户的查询不争用同一把锁；
+ * 容量按段平分，淘汰只在段内进行，整体上是近似 LRU
+ */
+public class RouteCache {
+
+    private static final int SEGMENTS = 16;   // 段数，2 的幂
+
+    private final long ttlMillis;       // 条目存活时间（毫秒）
+    private final Segment[] segments;
+
+    public RouteCache(int maxSize, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        int segmentSize = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * 获取缓存的节点 ID 集合
+     * @param userId 用户 ID
+     * @return 节点 ID 集合，未命中或已过期返回 null
+     */
+    public Set<String> get(String userId) {
+        Segment segment = segmentFor(userId);
+        synchronized (segment) {
+            Entry entry = segment.get(userId);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expireAt < System.currentTimeMillis()) {
+                segment.remove(userId);
+                return null;
+            }
+            return entry.nodeIds;
+        }
+    }
+
+    /**
+     * 缓存用户的节点 ID 集合，段已满时淘汰段内最久未访问的条目
+     * @param userId 用户 ID
+     * @param nodeIds 节点 ID 集合
+     */
+    public void put(String userId, Set<String> nodeIds) {
+        Entry entry = new Entry(nodeIds, System.currentTimeMillis() + ttlMillis);
+        Segment segment = segmentFor(userId);
+        synchronized (segment) {
+            segment.put(userId, entry);
+        }
+    }
+
+    /**
+     * 移除用户的缓存条目，收到路由失效通知时调用
+     * @param userId 用户 ID
+     */
+    public void invalidate(String userId) {
+        Segment segment = segmentFor(userId);
+        synchronized (segment) {
+            segment.remove(userId);
+        }
+    }
+
+    /**
+     * 获取缓存条目数，包含已过期但尚未被访问移除的条目
+     * @return 条目数
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String userId) {
+        int hash = userId.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * 一个段：按访问顺序排列的 LinkedHashMap，超过段容量时淘汰最久未访问的条目
+     * 访问顺序的 get 也会修改链表，所有操作都需持有段锁
+     */
+    private static final class Segment extends LinkedHashMap<String, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;   // 段容量
+
+        private Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    private static final class Entry {
+        private final Set<String> nodeIds;
+        private final long expireAt;
+
+        private Entry(Set<String> nodeIds, long expireAt) {
+            this.nodeIds = nodeIds;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.sse.registry;
+
+import com.example.sse.health.NodeHealthMonitor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 主题订阅节点注册中心
+ * Redis 中只记录哪些节点有某主题的订阅者，具体会话由各节点本地维护
+ */
+@Slf4j
+@Service
+public class TopicRegistry {
+
+    public static final String TOPIC_NODES_KEY_PREFIX = "sse:topic:";    // 主题订阅节点集合 Key 前缀
+    public static final String NODE_TOPICS_KEY_PREFIX = "sse:topics:";   // 节点订阅主题集合 Key 前缀，故障清理使用
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;   // 主题和节点 ID 都是纯字符串，不使用 JSON 序列化
+
+    @Autowired
+    private NodeHealthMonitor nodeHealthMonitor;   // 节点健康监控器
+
+    @Value("${node.id}")
+    private String currentNodeId;        // 当前节点 ID
+
+    /**
+     * 当前节点出现该主题的第一个订阅者
+     * @param topic 主题
+     */
+    public void addCurrentNode(String topic) {
+        stringRedisTemplate.opsForSet().add(TOPIC_NODES_KEY_PREFIX + topic, currentNodeId);
+        stringRedisTemplate.opsForSet().add(NODE_TOPICS_KEY_PREFIX + currentNodeId, topic);
+        log.info("Node {} subscribed to topic: {}", currentNodeId, topic);
+    }
+
+    /**
+     * 当前节点该主题的最后一个订阅者已离开
+     * @param topic 主题
+     */
+    public void removeCurrentNode(String topic) {
+        stringRedisTemplate.opsForSet().remove(TOPIC_NODES_KEY_PREFIX + topic, currentNodeId);
+        stringRedisTemplate.opsForSet().remove(NODE_TOPICS_KEY_PREFIX + currentNodeId, topic);
+        log.info("Node {} unsubscribed from topic: {}", currentNodeId, topic);
+    }
+
+    /**
+     * 获取有该主题订阅者的健康节点
+     * @param topic 主题
+     * @return 节点 ID 集合
+     */
+    public Set<String> getNodeIds(String topic) {
+        Set<String> members = stringRedisTemplate.opsForSet().members(TOPIC_NODES_KEY_PREFIX + topic);
+        if (members == null || members.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<String> nodeIds = new LinkedHashSet<>();
+        for (String nodeId : members) {
+            if (currentNodeId.equals(nodeId) || nodeHealthMonitor.isNodeHealthy(nodeId)) {
+                nodeIds.add(nodeId);
+            }
+        }
+        return nodeIds;
+    }
+}
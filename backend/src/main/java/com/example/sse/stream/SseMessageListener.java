@@ -1,8 +1,12 @@
 package com.example.sse.stream;
 
 import com.example.sse.manager.SseConnectionManager;
+import com.example.sse.manager.StreamSessionManager;
 import com.example.sse.model.SseMessage;
+import com.example.sse.registry.ConnectionRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -11,6 +15,10 @@ import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 @Component
 @EnableBinding(SseStreamChannels.class)
@@ -19,77 +27,229 @@ public class SseMessageListener {
     @Autowired
     private SseConnectionManager connectionManager;   // SSE 连接管理器
 
+    @Autowired
+    private StreamSessionManager streamSessionManager;   // 流式输出会话管理器
+
     @Autowired
     private ObjectMapper objectMapper;                // JSON 序列化工具
 
+    @Autowired
+    private ConnectionRegistry connectionRegistry;    // 连接注册中心，转发放置错位的消息
+
+    @Autowired
+    private SseMessageSender messageSender;           // 消息发送器
+
+    @Autowired
+    private MeterRegistry meterRegistry;              // 指标注册表
+
     @Value("${node.id}")
     private String currentNodeId;                    // 当前节点 ID
 
+    @Value("${sse.bus.dispatch-threads:4}")
+    private int dispatchThreads;                     // 分段处理线程数，0 表示在消费线程上直接处理
+
+    @Value("${sse.bus.dispatch-queue-capacity:1000}")
+    private int dispatchQueueCapacity;               // 每个分段的队列容量
+
+    @Value("${sse.bus.drain-timeout:5000}")
+    private long drainTimeoutMillis;                 // 停止时等待分段队列排空的最长时间（毫秒）
+
+    private StripedExecutor dispatcher;              // 按用户分段的处理执行器
+    private Timer routeLatency;                      // 路由消息发布到投递的端到端延迟
+    private Timer fanoutLatency;                     // 广播消息发布到投递的端到端延迟
+
+    @PostConstruct
+    public void init() {
+        routeLatency = latencyTimer("route");
+        fanoutLatency = latencyTimer("fanout");
+        if (dispatchThreads > 0) {
+            dispatcher = new StripedExecutor("sse-dispatch", dispatchThreads, dispatchQueueCapacity);
+        }
+    }
+
     /**
-     * 处理广播消息
-     * 所有节点都会收到消息，但只有持有目标用户连接的节点才会处理
+     * 排空分段队列后停止处理线程
+     * 销毁回调在所有 SmartLifecycle 停止之后执行，此时绑定已停止消费，不会再有新消息入队；
+     * 连接管理器等依赖在本 Bean 之后才销毁，排队的消息仍能正常投递
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (dispatcher != null) {
+            dispatcher.shutdown(drainTimeoutMillis);
+        }
+    }
+
+    /**
+     * 处理路由到当前节点的消息
+     * 发送方按用户所在节点 ID 路由，只有目标节点会收到消息
+     * 消息按 userId（主题消息按主题）分段交给处理线程：同一用户的消息保持顺序，不同用户并行处理
      * @param message SSE 消息
      */
-    @StreamListener(SseStreamChannels.SSE_BROADCAST_INPUT)
-    public void handleBroadcastMessage(@Payload SseMessage message) {
-        log.debug("Node {} received broadcast message: userId={}, eventName={}",
+    @StreamListener(SseStreamChannels.SSE_ROUTE_INPUT)
+    public void handleRoutedMessage(@Payload SseMessage message) throws InterruptedException {
+        log.debug("Node {} received routed message: userId={}, eventName={}",
             currentNodeId, message.getUserId(), message.getEventName());
 
+        // 批量消息，逐条按用户分段投递
+        if (message.getBatch() != null) {
+            for (SseMessage item : message.getBatch()) {
+                dispatch(item);
+            }
+            return;
+        }
+        dispatch(message);
+    }
+
+    private void dispatch(SseMessage message) throws InterruptedException {
+        if (dispatcher == null) {
+            processRoutedMessage(message);
+            return;
+        }
+        Object key = message.getTopic() != null ? "topic:" + message.getTopic() : message.getUserId();
+        dispatcher.execute(key, () -> processRoutedMessage(message));
+    }
+
+    /**
+     * 投递单条消息
+     * 用户可能在消息到达前已断开，因此仍需检查本地连接
+     * @param message SSE 消息
+     */
+    private void processRoutedMessage(SseMessage message) {
         try {
+            recordLatency(routeLatency, message);
+
+            // 主题消息，投递给本地所有订阅者
+            if (message.getTopic() != null) {
+                int delivered = connectionManager.publishToTopic(
+                    message.getTopic(), message.getEventName(), message.getData());
+                log.debug("Node {} delivered topic {} message to {} sessions",
+                    currentNodeId, message.getTopic(), delivered);
+                return;
+            }
+
             // 检查当前节点是否有该用户的连接
             if (connectionManager.hasConnection(message.getUserId())) {
-                // 处理流式输出启动请求
-                if ("start-stream".equals(message.getEventName())) {
-                    String streamText = (String) message.getData();
-                    startStreamOutput(message.getUserId(), streamText);
+                // 控制命令只由 command 字段指定，不根据事件名称判断
+                if (message.getCommand() != null) {
+                    executeCommand(message);
                     return;
                 }
 
-                // 根据是否有事件名决定发送方式
-                boolean success;
-                if (message.getEventName() != null && !message.getEventName().isEmpty()) {
-                    success = connectionManager.sendMessage(message.getUserId(), message.getEventName(), message.getData());
-                } else {
-                    success = connectionManager.sendMessage(message.getUserId(), message.getData());
-                }
+                // 事件已由发送方写入回放日志，使用同一事件 ID 投递
+                String eventName = message.getEventName() != null && !message.getEventName().isEmpty()
+                    ? message.getEventName() : null;
+                boolean success = connectionManager.sendEvent(
+                    message.getUserId(), message.getEventId(), eventName, message.getData());
 
                 if (success) {
                     log.debug("Node {} sent message successfully to userId: {}", currentNodeId, message.getUserId());
                 } else {
                     log.warn("Node {} failed to send message to userId: {}", currentNodeId, message.getUserId());
                 }
+            } else if (message.isPlaced()) {
+                // 按放置环路由过来，但用户不在归属节点（放置变化后尚未重连），按注册中心转发一次
+                forwardToRegisteredNodes(message);
             } else {
                 // 当前节点没有该用户的连接，忽略消息
                 log.debug("Node {} has no local connection for userId: {}, ignoring message",
                     currentNodeId, message.getUserId());
             }
         } catch (Exception e) {
-            log.error("Node {} error processing broadcast message for userId: {}",
+            log.error("Node {} error processing routed message for userId: {}",
                 currentNodeId, message.getUserId(), e);
         }
     }
 
     /**
-     * 启动流式输出
-     * @param userId 用户 ID
-     * @param streamText 流式输出文本
+     * 对用户在本地的会话执行控制命令
+     * @param message 带命令的 SSE 消息
      */
-    private void startStreamOutput(String userId, String streamText) {
-        new Thread(() -> {
-            try {
-                log.info("Starting stream output for userId: {}", userId);
-                for (int i = 0; i < streamText.length(); i++) {
-                    String str = String.valueOf(streamText.charAt(i));
-                    connectionManager.sendMessage(userId, "stream", str);
-                    Thread.sleep(50);  // 每个字符间隔 50 毫秒
+    private void executeCommand(SseMessage message) {
+        String userId = message.getUserId();
+        switch (message.getCommand()) {
+            case START_STREAM:
+                if (streamSessionManager.start(userId, message.getData()) == null) {
+                    log.warn("Node {} rejected stream for userId: {}", currentNodeId, userId);
                 }
-                // 发送流式输出完成事件
-                connectionManager.sendMessage(userId, "stream-complete", "completed");
-                log.info("Stream output completed for userId: {}", userId);
-            } catch (InterruptedException e) {
-                log.error("Stream output interrupted for userId: {}", userId, e);
-                Thread.currentThread().interrupt();
+                break;
+            case CANCEL_STREAM:
+                streamSessionManager.cancelByUser(userId);
+                break;
+            case SUBSCRIBE_TOPIC:
+                connectionManager.subscribeUser(userId, message.getData());
+                break;
+            case UNSUBSCRIBE_TOPIC:
+                connectionManager.unsubscribeUser(userId, message.getData());
+                break;
+            default:
+                log.warn("Node {} ignored unknown command {} for userId: {}", currentNodeId, message.getCommand(), userId);
+                break;
+        }
+    }
+
+    /**
+     * 转发放置错位的消息到用户实际所在的节点
+     * 转发的消息不带 placed 标记，不会再次转发
+     * @param message SSE 消息
+     */
+    private void forwardToRegisteredNodes(SseMessage message) {
+        int forwarded = 0;
+        for (String nodeId : connectionRegistry.getNodeIds(message.getUserId())) {
+            if (!connectionRegistry.isCurrentNode(nodeId)) {
+                messageSender.sendEventToNode(nodeId, message.getUserId(), message.getEventId(),
+                    message.getEventName(), message.getData());
+                forwarded++;
             }
-        }).start();
+        }
+        log.debug("Node {} forwarded misplaced message for userId: {} to {} node(s)",
+            currentNodeId, message.getUserId(), forwarded);
+    }
+
+    /**
+     * 处理全量广播消息
+     * 每个节点收到一条，编码一次后写给本地所有连接
+     * @param message SSE 消息
+     */
+    @StreamListener(SseStreamChannels.SSE_FANOUT_INPUT)
+    public void handleBroadcastMessage(@Payload SseMessage message) {
+        log.debug("Node {} received broadcast message: eventName={}", currentNodeId, message.getEventName());
+
+        try {
+            long latency = recordLatency(fanoutLatency, message);
+            int delivered = connectionManager.broadcastToAll(message.getEventName(), message.getData());
+            log.info("Node {} delivered broadcast to {} sessions, bus latency {}ms", currentNodeId, delivered, latency);
+        } catch (Exception e) {
+            log.error("Node {} error processing broadcast message", currentNodeId, e);
+        }
+    }
+
+    /**
+     * 记录从发布（SseMessage.timestamp）到开始投递的延迟，包含跨节点时钟偏差
+     * @param timer 延迟计时器
+     * @param message SSE 消息
+     * @return 延迟（毫秒），消息没有时间戳时返回 -1
+     */
+    private long recordLatency(Timer timer, SseMessage message) {
+        if (message.getTimestamp() == null) {
+            return -1;
+        }
+        long latency = Math.max(0, System.currentTimeMillis() - message.getTimestamp());
+        timer.record(latency, TimeUnit.MILLISECONDS);
+        return latency;
+    }
+
+    private Timer latencyTimer(String channel) {
+        return Timer.builder("sse.bus.latency")
+            .description("Publish to deliver latency of bus messages")
+            .tag("channel", channel)
+            .register(meterRegistry);
+    }
+
+    /**
+     * 获取等待处理的路由消息数
+     * @return 消息数
+     */
+    public int getPendingMessages() {
+        return dispatcher == null ? 0 : dispatcher.getQueuedTasks();
     }
 }
@@ -8,33 +8,203 @@ import org.springframework.messaging.Message;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Slf4j
 @Service
 @EnableBinding(SseStreamChannels.class)
 public class SseMessageSender {
 
+    public static final String TARGET_NODE_HEADER = "targetNode";   // 目标节点消息头，作为 RabbitMQ routing key
+
     @Autowired
     private SseStreamChannels channels;
 
-    public void broadcast(String userId, String data) {
-        broadcast(userId, null, data);
+    public void sendToNode(String nodeId, String userId, String data) {
+        sendToNode(nodeId, userId, null, data);
+    }
+
+    /**
+     * 发送消息到指定节点
+     * 以目标节点 ID 作为 routing key，只有该节点的队列会收到消息
+     * @param nodeId 目标节点 ID
+     * @param userId 用户 ID
+     * @param eventName 事件名称
+     * @param data 事件数据
+     */
+    public void sendToNode(String nodeId, String userId, String eventName, String data) {
+        sendEventToNode(nodeId, userId, null, eventName, data);
     }
 
-    public void broadcast(String userId, String eventName, String data) {
+    /**
+     * 发送已写入回放日志的事件到指定节点，目标节点使用同一事件 ID，不再写入日志
+     * @param nodeId 目标节点 ID
+     * @param userId 用户 ID
+     * @param eventId 事件 ID，为空时事件不可回放
+     * @param eventName 事件名称
+     * @param data 事件数据
+     */
+    public void sendEventToNode(String nodeId, String userId, String eventId, String eventName, String data) {
         SseMessage message = new SseMessage(
             userId,
             eventName,
             data,
-            System.currentTimeMillis()
+            System.currentTimeMillis(),
+            null,
+            null,
+            false,
+            eventId,
+            null
         );
 
-        Message<SseMessage> msg = MessageBuilder.withPayload(message).build();
-        boolean sent = channels.broadcastOutput().send(msg);
+        if (send(nodeId, message)) {
+            log.info("Routed message sent: nodeId={}, userId={}, eventName={}", nodeId, userId, eventName);
+        } else {
+            log.error("Failed to route message: nodeId={}, userId={}, eventName={}", nodeId, userId, eventName);
+        }
+    }
 
+    /**
+     * 发送控制命令到指定节点，由该节点对用户在本地的会话执行
+     * @param nodeId 目标节点 ID
+     * @param userId 用户 ID
+     * @param command 控制命令
+     * @param data 命令参数，如流式输出文本或主题
+     */
+    public void sendCommandToNode(String nodeId, String userId, SseMessage.Command command, String data) {
+        SseMessage message = new SseMessage(
+            userId,
+            null,
+            data,
+            System.currentTimeMillis(),
+            null,
+            null,
+            false,
+            null,
+            command
+        );
+
+        if (send(nodeId, message)) {
+            log.info("Command sent: nodeId={}, userId={}, command={}", nodeId, userId, command);
+        } else {
+            log.error("Failed to send command: nodeId={}, userId={}, command={}", nodeId, userId, command);
+        }
+    }
+
+    /**
+     * 按放置环发送消息到用户的归属节点
+     * 归属节点没有该用户的连接时（放置变化中）会查询注册中心转发一次
+     * @param nodeId 归属节点 ID
+     * @param userId 用户 ID
+     * @param eventId 回放日志中的事件 ID，为空时事件不可回放
+     * @param eventName 事件名称
+     * @param data 事件数据
+     */
+    public void sendToHomeNode(String nodeId, String userId, String eventId, String eventName, String data) {
+        SseMessage message = new SseMessage(
+            userId,
+            eventName,
+            data,
+            System.currentTimeMillis(),
+            null,
+            null,
+            true,
+            eventId,
+            null
+        );
+
+        if (send(nodeId, message)) {
+            log.info("Placed message sent: nodeId={}, userId={}, eventName={}", nodeId, userId, eventName);
+        } else {
+            log.error("Failed to send placed message: nodeId={}, userId={}, eventName={}", nodeId, userId, eventName);
+        }
+    }
+
+    /**
+     * 发布主题消息到指定节点
+     * 每个有订阅者的节点只收到一条消息，由该节点投递给本地订阅者
+     * @param nodeId 目标节点 ID
+     * @param topic 主题
+     * @param eventName 事件名称
+     * @param data 事件数据
+     */
+    public void publishToNode(String nodeId, String topic, String eventName, String data) {
+        SseMessage message = new SseMessage(
+            null,
+            eventName,
+            data,
+            System.currentTimeMillis(),
+            topic,
+            null,
+            false,
+            null,
+            null
+        );
+
+        if (send(nodeId, message)) {
+            log.info("Topic message sent: nodeId={}, topic={}, eventName={}", nodeId, topic, eventName);
+        } else {
+            log.error("Failed to send topic message: nodeId={}, topic={}, eventName={}", nodeId, topic, eventName);
+        }
+    }
+
+    /**
+     * 批量发送消息到指定节点
+     * 一批发往同一节点的用户消息合并为一条 MQ 消息
+     * @param nodeId 目标节点 ID
+     * @param items 消息列表，每条包含 userId、eventName、data
+     */
+    public void sendBatchToNode(String nodeId, List<SseMessage> items) {
+        SseMessage message = new SseMessage(
+            null,
+            null,
+            null,
+            System.currentTimeMillis(),
+            null,
+            items,
+            false,
+            null,
+            null
+        );
+
+        if (send(nodeId, message)) {
+            log.info("Batch message sent: nodeId={}, size={}", nodeId, items.size());
+        } else {
+            log.error("Failed to send batch message: nodeId={}, size={}", nodeId, items.size());
+        }
+    }
+
+    /**
+     * 广播消息给所有节点的所有连接
+     * 通过 fanout exchange 发送，每个节点（包括当前节点）只收到一条
+     * @param eventName 事件名称
+     * @param data 事件数据
+     */
+    public void broadcastToAll(String eventName, String data) {
+        SseMessage message = new SseMessage(
+            null,
+            eventName,
+            data,
+            System.currentTimeMillis(),
+            null,
+            null,
+            false,
+            null,
+            null
+        );
+
+        boolean sent = channels.fanoutOutput().send(MessageBuilder.withPayload(message).build());
         if (sent) {
-            log.info("Broadcast message sent: userId={}, eventName={}", userId, eventName);
+            log.info("Broadcast message sent: eventName={}", eventName);
         } else {
-            log.error("Failed to broadcast message: userId={}, eventName={}", userId, eventName);
+            log.error("Failed to broadcast message: eventName={}", eventName);
         }
     }
+
+    private boolean send(String nodeId, SseMessage message) {
+        Message<SseMessage> msg = MessageBuilder.withPayload(message)
+            .setHeader(TARGET_NODE_HEADER, nodeId)
+            .build();
+        return channels.routeOutput().send(msg);
+    }
 }
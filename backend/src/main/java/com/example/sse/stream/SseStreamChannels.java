@@ -7,12 +7,20 @@ import org.springframework.messaging.SubscribableChannel;
 
 public interface SseStreamChannels {
 
-    String SSE_BROADCAST_OUTPUT = "sseBroadcastOutput";
-    String SSE_BROADCAST_INPUT = "sseBroadcastInput";
+    String SSE_ROUTE_OUTPUT = "sseRouteOutput";
+    String SSE_ROUTE_INPUT = "sseRouteInput";
+    String SSE_FANOUT_OUTPUT = "sseFanoutOutput";
+    String SSE_FANOUT_INPUT = "sseFanoutInput";
 
-    @Output(SSE_BROADCAST_OUTPUT)
-    MessageChannel broadcastOutput();
+    @Output(SSE_ROUTE_OUTPUT)
+    MessageChannel routeOutput();
 
-    @Input(SSE_BROADCAST_INPUT)
-    SubscribableChannel broadcastInput();
+    @Input(SSE_ROUTE_INPUT)
+    SubscribableChannel routeInput();
+
+    @Output(SSE_FANOUT_OUTPUT)
+    MessageChannel fanoutOutput();
+
+    @Input(SSE_FANOUT_INPUT)
+    SubscribableChannel fanoutInput();
 }
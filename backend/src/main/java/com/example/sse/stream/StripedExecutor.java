@@ -0,0 +1,137 @@
+package com.example.sse.stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段执行器
+ * 按 key 的哈希选择固定的工作线程，同一 key 的任务按提交顺序串行执行，不同 key 的任务在多个线程上并行执行
+ * 每个分段的队列有界，队列满时提交方等待，把背压传回消息总线消费者
+ * 停止时不再接受新任务，已排队的任务在限定时间内执行完；提交与停止并发时，任务要么被执行，要么被拒绝，不会丢失
+ */
+@Slf4j
+public class StripedExecutor {
+
+    private static final long POLL_MILLIS = 100;      // 工作线程空闲、提交方等待队列空间时检查停止标记的间隔（毫秒）
+
+    private final BlockingQueue<Runnable>[] queues;   // 每个分段的任务队列
+    private final Thread[] workers;                   // 每个分段的工作线程
+    private volatile boolean running = true;          // 是否运行中
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public StripedExecutor(String name, int stripes, int queueCapacity) {
+        this.queues = new BlockingQueue[stripes];
+        this.workers = new Thread[stripes];
+        for (int i = 0; i < stripes; i++) {
+            BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(queueCapacity);
+            queues[i] = queue;
+            workers[i] = new Thread(() -> runWorker(queue), name + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 提交任务
+     * 队列满时分段等待，每次等待后检查是否已停止；入队后再检查一次，停止后入队的任务撤回并拒绝，
+     * 撤回失败说明工作线程已取走该任务，任务会被执行
+     * @param key 分段 key，相同 key 的任务保证顺序
+     * @param task 任务
+     * @throws InterruptedException 等待队列空间时被中断
+     * @throws RejectedExecutionException 执行器已停止
+     */
+    public void execute(Object key, Runnable task) throws InterruptedException {
+        int hash = key == null ? 0 : key.hashCode();
+        BlockingQueue<Runnable> queue = queues[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % queues.length];
+        while (true) {
+            if (!running) {
+                throw new RejectedExecutionException("Striped executor is shut down");
+            }
+            if (queue.offer(task, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                break;
+            }
+        }
+        if (!running && queue.remove(task)) {
+            throw new RejectedExecutionException("Striped executor is shut down");
+        }
+    }
+
+    private void runWorker(BlockingQueue<Runnable> queue) {
+        while (true) {
+            Runnable task;
+            try {
+                task = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (task == null) {
+                if (!running) {
+                    // 已停止：再排空一次，执行停止前入队、提交方尚未看到停止标记的任务
+                    while ((task = queue.poll()) != null) {
+                        run(task);
+                    }
+                    break;
+                }
+                continue;
+            }
+            run(task);
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("Striped task failed", e);
+        }
+    }
+
+    /**
+     * 获取所有分段中排队的任务数
+     * @return 任务数
+     */
+    public int getQueuedTasks() {
+        int total = 0;
+        for (BlockingQueue<Runnable> queue : queues) {
+            total += queue.size();
+        }
+        return total;
+    }
+
+    /**
+     * 停止接受新任务，等待已排队的任务执行完
+     * 超时后中断工作线程，剩余任务被丢弃
+     * @param timeoutMillis 最长等待时间（毫秒）
+     * @return 是否在超时前排空
+     */
+    public boolean shutdown(long timeoutMillis) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (Thread worker : workers) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining > 0) {
+                    worker.join(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int dropped = getQueuedTasks();
+        boolean drained = true;
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                drained = false;
+                worker.interrupt();
+            }
+        }
+        if (!drained) {
+            log.warn("Striped executor did not drain within {}ms, {} queued task(s) dropped", timeoutMillis, dropped);
+        }
+        return drained;
+    }
+}
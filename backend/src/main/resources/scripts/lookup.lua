@@ -0,0 +1,35 @@
+-- 查询用户会话所在的健康节点，只读不删除
+-- 健康节点集合由调用方按 NodeHealthMonitor 的成员表传入，只用于筛选返回结果：本地成员表可能滞后，
+-- 不健康节点上的会话由确认节点失效后的故障清理（NodeHealthMonitor.checkNodeHealth）删除
+-- KEYS[1..]    用户会话 Hash sse:conn:<userId>，值为 nodeId|connectTime
+-- ARGV[1]      当前时间（毫秒）
+-- ARGV[2]      节点超时时间（毫秒），健康集合之外的节点在此时间内注册的会话视为节点仍存活（加入事件可能尚未到达）
+-- ARGV[3..]    健康节点 ID（含当前节点）
+-- 返回与 KEYS 对应的数组，每项为 {跳过的会话数, 健康节点 ID...}
+local now = tonumber(ARGV[1])
+local timeout = tonumber(ARGV[2])
+local healthy = {}
+for i = 3, #ARGV do
+    healthy[ARGV[i]] = true
+end
+local result = {}
+for i = 1, #KEYS do
+    local entries = redis.call('HGETALL', KEYS[i])
+    local item = {0}
+    local seen = {}
+    for j = 1, #entries, 2 do
+        local nodeId, connectTime = string.match(entries[j + 1], '^(.*)|(%d+)$')
+        nodeId = nodeId or entries[j + 1]
+        local alive = healthy[nodeId] or (connectTime ~= nil and now - tonumber(connectTime) <= timeout)
+        if alive then
+            if not seen[nodeId] then
+                seen[nodeId] = true
+                item[#item + 1] = nodeId
+            end
+        else
+            item[1] = item[1] + 1
+        end
+    end
+    result[i] = item
+end
+return result
@@ -0,0 +1,17 @@
+-- 批量注册会话：写入会话记录、续期、加入节点用户集合并发布路由失效，一次往返原子完成
+-- KEYS[1]    节点用户集合 sse:members:<nodeId>
+-- KEYS[2..]  用户会话 Hash sse:conn:<userId>，与注册一一对应
+-- ARGV[1]    会话记录过期时间（秒）
+-- ARGV[2]    路由失效频道
+-- ARGV[3..]  每个注册三个参数：userId, sessionId, nodeId|connectTime
+-- 返回写入的会话数
+local ttl = tonumber(ARGV[1])
+for i = 2, #KEYS do
+    local arg = 3 + (i - 2) * 3
+    local userId = ARGV[arg]
+    redis.call('HSET', KEYS[i], ARGV[arg + 1], ARGV[arg + 2])
+    redis.call('EXPIRE', KEYS[i], ttl)
+    redis.call('SADD', KEYS[1], userId)
+    redis.call('PUBLISH', ARGV[2], userId)
+end
+return #KEYS - 1
@@ -0,0 +1,30 @@
+-- 比较后删除会话：只删除记录中节点 ID 仍为指定节点的会话，不会误删其他节点写入的记录
+-- KEYS[1]    节点用户集合 sse:members:<nodeId>
+-- KEYS[2..]  用户会话 Hash sse:conn:<userId>
+-- ARGV[1]    节点 ID
+-- ARGV[2]    路由失效频道
+-- ARGV[3]    是否删除整个节点用户集合（1 / 0），节点排空下线时使用
+-- ARGV[4..]  与 KEYS[2..] 对应，每个用户依次为：userId, 是否从节点用户集合移除（1 / 0）, 会话数 n, n 个 sessionId
+-- 返回删除的会话数
+local nodeId = ARGV[1]
+local deleted = 0
+local arg = 4
+for i = 2, #KEYS do
+    local userId = ARGV[arg]
+    local count = tonumber(ARGV[arg + 2])
+    for j = arg + 3, arg + 2 + count do
+        local value = redis.call('HGET', KEYS[i], ARGV[j])
+        if value and string.match(value, '^(.*)|') == nodeId then
+            deleted = deleted + redis.call('HDEL', KEYS[i], ARGV[j])
+        end
+    end
+    if ARGV[arg + 1] == '1' then
+        redis.call('SREM', KEYS[1], userId)
+    end
+    redis.call('PUBLISH', ARGV[2], userId)
+    arg = arg + 3 + count
+end
+if ARGV[3] == '1' then
+    redis.call('DEL', KEYS[1])
+end
+return deleted
@@ -0,0 +1,100 @@
+package com.example.sse.controller;
+
+import com.example.sse.manager.ConnectAdmission;
+import com.example.sse.manager.ReactiveSseConnectionFactory;
+import com.example.sse.model.NodeInfo;
+import com.example.sse.registry.PlacementRing;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * SSE 连接端点（Reactive 传输，运行在 Netty 上）
+ * 使用 reactive profile 启用：mvn -Preactive 编译，--spring.profiles.active=reactive 运行
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/sse")
+@CrossOrigin(origins = "*", maxAge = 3600, exposedHeaders = {PlacementRing.HOME_NODE_HEADER, PlacementRing.HOME_URL_HEADER})
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveSseConnectController {
+
+    @Autowired
+    private ReactiveSseConnectionFactory connectionFactory;   // Reactive 会话工厂
+
+    @Autowired
+    private PlacementRing placementRing;                      // 一致性哈希放置环
+
+    @Autowired
+    private ConnectAdmission connectAdmission;                // 建立连接的准入控制
+
+    /**
+     * 建立 SSE 连接
+     * 注册连接需要访问 Redis，放到 boundedElastic 线程执行，不阻塞事件循环
+     * 开启放置模式且当前节点不是用户的归属节点时，重定向到归属节点或在响应头中提示；重定向不经过准入控制
+     * 节点排空中、连接数达到上限或超过建立连接速率时，不访问 Redis 直接返回 503，客户端按 Retry-After 稍后重连
+     * @param userId 用户 ID
+     * @param topics 连接时订阅的主题，可选，如 ?topics=room-1,dashboard
+     * @param home 重定向时带上的归属节点 ID，非空时直接接受连接，避免各节点放置环短暂不一致时来回重定向
+     * @param lastEventIdHeader 断线重连时浏览器带回的最后事件 ID，非空时先回放错过的事件
+     * @param lastEventIdParam 客户端新建 EventSource 重连时通过查询参数带回的最后事件 ID，请求头为空时使用
+     * @param request 当前请求，用于生成归属节点上的连接地址
+     * @return 事件流，重定向时没有响应体
+     */
+    @GetMapping(value = "/connect/{userId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<String>>> connect(@PathVariable String userId,
+                                                                 @RequestParam(required = false) List<String> topics,
+                                                                 @RequestParam(value = PlacementRing.HOME_PARAM, required = false) String home,
+                                                                 @RequestHeader(value = "Last-Event-ID", required = false) String lastEventIdHeader,
+                                                                 @RequestParam(value = "lastEventId", required = false) String lastEventIdParam,
+                                                                 ServerHttpRequest request) {
+        String lastEventId = lastEventIdHeader != null ? lastEventIdHeader : lastEventIdParam;
+        log.info("SSE connection request: userId={}, topics={}, lastEventId={}", userId, topics, lastEventId);
+
+        // 先决定是否重定向：只被重定向到归属节点的请求不占用本节点的准入令牌，由接受连接的节点计入
+        NodeInfo homeNode = home == null ? placementRing.remoteHome(userId) : null;
+        URI homeUri = null;
+        if (homeNode != null) {
+            homeUri = UriComponentsBuilder.fromHttpRequest(request)
+                .host(homeNode.getHost())
+                .port(homeNode.getPort())
+                .replaceQueryParam(PlacementRing.HOME_PARAM, homeNode.getNodeId())
+                .build()
+                .toUri();
+            if (placementRing.getMode() == PlacementRing.Mode.REDIRECT) {
+                log.debug("Redirecting userId={} to home node {}", userId, homeNode.getNodeId());
+                return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT).location(homeUri).build();
+            }
+        }
+
+        ConnectAdmission.Decision decision = connectAdmission.tryAdmit();
+        if (decision != ConnectAdmission.Decision.ACCEPTED) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(connectAdmission.retryAfterSeconds(decision)))
+                .build();
+        }
+
+        Flux<ServerSentEvent<String>> events = Flux.defer(() -> connectionFactory.createConnection(userId, topics, lastEventId))
+            .subscribeOn(Schedulers.boundedElastic());
+        if (homeNode == null) {
+            return ResponseEntity.ok(events);
+        }
+        return ResponseEntity.ok()
+            .header(PlacementRing.HOME_NODE_HEADER, homeNode.getNodeId())
+            .header(PlacementRing.HOME_URL_HEADER, homeUri.toString())
+            .body(events);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.sse.manager;
+
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Reactive 传输的 SSE 会话，基于 Reactor Sink
+ * 发送只是把事件放入 Sink，由 Netty 事件循环异步写出，不阻塞调用线程，因此不经过发送队列和写出线程
+ */
+public class ReactiveSseConnection extends SseConnection {
+
+    private final Sinks.Many<ServerSentEvent<String>> sink;   // 事件 Sink，缓冲有界，客户端跟不上时发送失败
+
+    public ReactiveSseConnection(String userId, String sessionId, OutboundQueue outbound, int bufferSize) {
+        super(userId, sessionId, outbound);
+        this.sink = Sinks.many().unicast().onBackpressureBuffer(Queues.<ServerSentEvent<String>>get(bufferSize).get());
+    }
+
+    /**
+     * 获取发给客户端的事件流
+     * @return 事件流
+     */
+    public Flux<ServerSentEvent<String>> asFlux() {
+        return sink.asFlux();
+    }
+
+    @Override
+    protected boolean isDirect() {
+        return true;
+    }
+
+    @Override
+    public synchronized void send(SseFrame frame) throws IOException {
+        for (SseFrame part : frame.getParts()) {
+            Sinks.EmitResult result = sink.tryEmitNext(part.adapt(ReactiveSseConnection::toServerSentEvent));
+            if (result.isFailure()) {
+                throw new IOException("Failed to emit SSE event: " + result);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void complete() {
+        sink.tryEmitComplete();
+    }
+
+    private static ServerSentEvent<String> toServerSentEvent(SseFrame frame) {
+        if (frame.getComment() != null) {
+            return ServerSentEvent.<String>builder().comment(frame.getComment()).build();
+        }
+        return ServerSentEvent.builder(frame.getData()).id(frame.getId()).event(frame.getEventName())
+            .retry(frame.getRetry() != null ? Duration.ofMillis(frame.getRetry()) : null).build();
+    }
+}
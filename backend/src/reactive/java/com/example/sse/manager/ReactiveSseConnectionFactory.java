@@ -0,0 +1,48 @@
+package com.example.sse.manager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * 创建 Reactive 传输的 SSE 会话，会话由 SseConnectionManager 统一管理
+ * 只在 reactive Maven profile 下编译，默认构建不依赖 WebFlux
+ */
+@Slf4j
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveSseConnectionFactory {
+
+    @Autowired
+    private SseConnectionManager connectionManager;   // SSE 连接管理器
+
+    /**
+     * 创建 SSE 连接（Reactive 传输）
+     * 发送不阻塞调用线程，连接不占用 Servlet 异步上下文
+     * @param userId 用户 ID
+     * @param topics 连接时订阅的主题，可为空
+     * @param lastEventId 客户端最后收到的事件 ID，非空时先回放之后的事件
+     * @return 发给客户端的事件流
+     */
+    public Flux<ServerSentEvent<String>> createConnection(String userId, Collection<String> topics, String lastEventId) {
+        String sessionId = UUID.randomUUID().toString();
+        ReactiveSseConnection connection = new ReactiveSseConnection(userId, sessionId,
+            connectionManager.newOutboundQueue(), connectionManager.getQueueCapacity());
+
+        Flux<ServerSentEvent<String>> flux = connection.asFlux()
+            .take(SseConnectionManager.CONNECTION_TIMEOUT)   // 30 分钟超时
+            .doFinally(signal -> {
+                log.info("SSE connection finished: userId={}, sessionId={}, signal={}", userId, sessionId, signal);
+                connectionManager.cleanup(userId, sessionId);
+            });
+
+        connectionManager.addConnection(connection, topics, lastEventId);
+        return flux;
+    }
+}